@@ -8,8 +8,8 @@
 package tetris;
 
 public class BadBrain extends DefaultBrain {
-	public double rateBoard(Board board) {
-		double score = super.rateBoard(board);
+	public double rateFeatures(int width, int maxHeight, int sumHeight, int holes) {
+		double score = super.rateFeatures(width, maxHeight, sumHeight, holes);
 		return(10000 - score);
 	}
 }
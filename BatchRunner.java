@@ -0,0 +1,235 @@
+/* Class: BatchRunner.java
+ * -----------------------
+ * Plays many headless games with a brain, one per seed, at once on an
+ * executor, and reports each game as it finishes, then the throughput and
+ * the distribution of the scores.
+ *
+ * Each game gets its own GameEngine and its own Brain, made for it, and
+ * its pieces come from new Random(seed), so a game's result only depends
+ * on its seed: the same seeds give the same results with any number of
+ * threads, as long as the brain does not depend on the clock. A
+ * LookaheadBrain with a time budget does, and so does a RolloutBrain made
+ * with no arguments, whose moves also depend on how its threads are
+ * scheduled; given setRollouts() (with a supplier built in code), it does not.
+ *
+ * Usage: java tetris.BatchRunner brainClass firstSeed lastSeed [width height [threads|virtual [pieceLimit]]]
+ * The brain class needs a constructor with no arguments; names without a
+ * package are taken to be in this one. The board is 10x20 by default, the
+ * executor has one platform thread per core, and games are played to the end.
+ */
+package tetris;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+public class BatchRunner {
+	private final Supplier<Brain> brains;
+	private final int width;
+	private final int height;
+	private final int pieceLimit;
+
+	/* Class: Result
+	 * -------------
+	 * The result of one game.
+	 */
+	public static class Result {
+		public final long seed;
+		public final int score;
+		public final int pieces;	// pieces played, counting the one that ended the game
+		public final long ticks;
+		public final long nanos;	// time the game took to play
+
+		public Result(long seed, int score, int pieces, long ticks, long nanos) {
+			this.seed = seed;
+			this.score = score;
+			this.pieces = pieces;
+			this.ticks = ticks;
+			this.nanos = nanos;
+		}
+
+		public String toString() {
+			return String.format("seed %d: score %d, %d pieces, %d ticks, %.1f ms",
+					seed, score, pieces, ticks, nanos / 1e6);
+		}
+	}
+
+	/* Interface: Listener
+	 * -------------------
+	 * Told about each game as it finishes, in whatever order they finish.
+	 * Calls are never made at the same time.
+	 */
+	public interface Listener {
+		public void gameFinished(Result result);
+	}
+
+	/* Constructor: BatchRunner
+	 * ------------------------
+	 * Creates a runner that plays each game with a new brain from the given
+	 * supplier, on a board width wide where pieces must land within height
+	 * rows (with JTetris.TOP_SPACE rows above to start in). With pieceLimit > 0,
+	 * games stop after that many pieces.
+	 */
+	public BatchRunner(Supplier<Brain> brains, int width, int height, int pieceLimit) {
+		this.brains = brains;
+		this.width = width;
+		this.height = height;
+		this.pieceLimit = pieceLimit;
+	}
+
+	/* Method: brainsOf
+	 * ----------------
+	 * Returns a supplier of new instances of the named Brain class.
+	 */
+	public static Supplier<Brain> brainsOf(String className) {
+		if (className.indexOf('.') < 0) className = "tetris." + className;
+		final Class<? extends Brain> type;
+		try {
+			type = Class.forName(className).asSubclass(Brain.class);
+			type.getDeclaredConstructor();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new RuntimeException("Not a Brain class with a no-argument constructor: " + className, e);
+		}
+		return () -> {
+			try {
+				return type.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException("Could not make a " + type.getName(), e);
+			}
+		};
+	}
+
+	/* Method: newExecutor
+	 * -------------------
+	 * Returns an executor with the given number of platform threads, or, if
+	 * threads is 0, one that starts a virtual thread per game. Virtual threads
+	 * need Java 21; they are looked up reflectively so this builds on older ones.
+	 */
+	public static ExecutorService newExecutor(int threads) {
+		if (threads > 0) return Executors.newFixedThreadPool(threads);
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Virtual threads need Java 21 or later", e);
+		}
+	}
+
+	/* Method: playGame
+	 * ----------------
+	 * Plays the game for one seed on this thread.
+	 */
+	public Result playGame(long seed) {
+		long start = System.nanoTime();
+		GameEngine engine = new GameEngine(width, height, JTetris.TOP_SPACE);
+		BrainDriver driver = new BrainDriver(engine, brains.get());
+		long ticks = driver.playGame(new Random(seed), pieceLimit);
+		return new Result(seed, engine.getScore(), engine.getCount(), ticks, System.nanoTime() - start);
+	}
+
+	/* Method: run
+	 * -----------
+	 * Plays a game for each seed on the executor, telling the listener (if
+	 * not null) about each one as it finishes, and returns the results in
+	 * the order of the seeds.
+	 */
+	public List<Result> run(long[] seeds, ExecutorService executor, final Listener listener) {
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(seeds.length);
+		for (final long seed : seeds) {
+			futures.add(executor.submit(() -> {
+				Result result = playGame(seed);
+				if (listener != null) {
+					synchronized (listener) {
+						listener.gameFinished(result);
+					}
+				}
+				return result;
+			}));
+		}
+
+		List<Result> results = new ArrayList<Result>(seeds.length);
+		try {
+			for (Future<Result> future : futures) results.add(future.get());
+		} catch (InterruptedException e) {
+			for (Future<Result> future : futures) future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while games were being played", e);
+		} catch (ExecutionException e) {
+			for (Future<Result> future : futures) future.cancel(true);
+			throw new RuntimeException("A game failed", e.getCause());
+		}
+		return results;
+	}
+
+	/* Method: printSummary
+	 * --------------------
+	 * Prints the throughput of the games, given the time they took in all,
+	 * and the distribution of their scores and pieces.
+	 */
+	public static void printSummary(List<Result> results, long elapsedNanos, PrintStream out) {
+		if (results.isEmpty()) return;
+		int n = results.size();
+		int[] scores = new int[n];
+		int[] pieces = new int[n];
+		long totalPieces = 0;
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			scores[i] = results.get(i).score;
+			pieces[i] = results.get(i).pieces;
+			totalPieces += pieces[i];
+			sum += scores[i];
+		}
+		double mean = sum / n;
+		double squares = 0;
+		for (int score : scores) squares += (score - mean) * (score - mean);
+		Arrays.sort(scores);
+		Arrays.sort(pieces);
+
+		double seconds = elapsedNanos / 1e9;
+		out.printf("%d games in %.2f s: %.1f games/s, %.0f pieces/s%n", n, seconds, n / seconds, totalPieces / seconds);
+		out.printf("score: mean %.1f, stddev %.1f%n", mean, Math.sqrt(squares / n));
+		out.printf("score: min %d, 10%% %d, 25%% %d, median %d, 75%% %d, 90%% %d, max %d%n",
+				scores[0], percentile(scores, 10), percentile(scores, 25), percentile(scores, 50),
+				percentile(scores, 75), percentile(scores, 90), scores[n-1]);
+		out.printf("pieces: min %d, median %d, max %d%n", pieces[0], percentile(pieces, 50), pieces[n-1]);
+	}
+
+	/* Method: percentile
+	 * ------------------
+	 * Returns the given percentile of the sorted values (nearest rank).
+	 */
+	private static int percentile(int[] sorted, int percent) {
+		int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	public static void main(String[] args) {
+		// a width needs its height
+		if (args.length < 3 || args.length == 4) {
+			System.err.println("Usage: java tetris.BatchRunner brainClass firstSeed lastSeed [width height [threads|virtual [pieceLimit]]]");
+			System.exit(1);
+		}
+		Supplier<Brain> brains = brainsOf(args[0]);
+		long firstSeed = Long.parseLong(args[1]);
+		long lastSeed = Long.parseLong(args[2]);
+		int width = (args.length > 4) ? Integer.parseInt(args[3]) : JTetris.WIDTH;
+		int height = (args.length > 4) ? Integer.parseInt(args[4]) : JTetris.HEIGHT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 5) threads = args[5].equals("virtual") ? 0 : Integer.parseInt(args[5]);
+		int pieceLimit = (args.length > 6) ? Integer.parseInt(args[6]) : 0;
+		if (lastSeed < firstSeed) throw new RuntimeException("The last seed comes before the first");
+
+		long[] seeds = new long[(int)(lastSeed - firstSeed + 1)];
+		for (int i = 0; i < seeds.length; i++) seeds[i] = firstSeed + i;
+
+		BatchRunner runner = new BatchRunner(brains, width, height, pieceLimit);
+		ExecutorService executor = newExecutor(threads);
+		long start = System.nanoTime();
+		List<Result> results = runner.run(seeds, executor, result -> System.out.println(result));
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		System.out.println((threads > 0 ? threads + " platform threads" : "virtual threads") + ", board " + width + "x" + height);
+		printSummary(results, elapsed, System.out);
+	}
+}
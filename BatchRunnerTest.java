@@ -0,0 +1,55 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.*;
+
+public class BatchRunnerTest {
+	private BatchRunner runner;
+	private long[] seeds;
+
+	@Before
+	public void setUp() throws Exception {
+		runner = new BatchRunner(BatchRunner.brainsOf("DefaultBrain"), 10, 20, 60);
+		seeds = new long[] { 5, 1, 4, 2, 3 };
+	}
+
+	// Runs the seeds on an executor with the given number of threads
+	private List<BatchRunner.Result> run(int threads) {
+		ExecutorService executor = BatchRunner.newExecutor(threads);
+		try {
+			return runner.run(seeds, executor, null);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// The results come back in the order of the seeds, and each one is the game its seed plays on its own
+	@Test
+	public void testSeedOrder() {
+		List<BatchRunner.Result> results = run(2);
+		assertEquals(seeds.length, results.size());
+		for (int i = 0; i < seeds.length; i++) {
+			BatchRunner.Result alone = runner.playGame(seeds[i]);
+			assertEquals(seeds[i], results.get(i).seed);
+			assertEquals(alone.score, results.get(i).score);
+			assertEquals(alone.pieces, results.get(i).pieces);
+			assertEquals(alone.ticks, results.get(i).ticks);
+		}
+	}
+
+	// The results do not depend on the number of threads
+	@Test
+	public void testThreadCounts() {
+		List<BatchRunner.Result> one = run(1);
+		List<BatchRunner.Result> three = run(3);
+		for (int i = 0; i < seeds.length; i++) {
+			assertEquals(one.get(i).score, three.get(i).score);
+			assertEquals(one.get(i).pieces, three.get(i).pieces);
+			assertEquals(one.get(i).ticks, three.get(i).ticks);
+		}
+	}
+}
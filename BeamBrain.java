@@ -0,0 +1,253 @@
+/* Class BeamBrain.java
+ * --------------------
+ * A Brain that looks ahead at the preview with a beam search. Rather than
+ * searching a tree, it keeps the best beamWidth boards after each piece:
+ * every placement of the next piece on every board in the beam is rated with
+ * ratePlacement() (on the same scale as rateBoard()), and the best beamWidth
+ * of them become the next beam. The current piece is played the way that
+ * leads to the best board after the last piece.
+ *
+ * The boards live in a fixed pool of 2*beamWidth boards, reused from move to
+ * move, so the memory a decision takes does not grow with depth. The time
+ * it takes grows about linearly with beamWidth: a narrow beam suits the GUI,
+ * a wide one batch runs.
+ */
+
+package tetris;
+
+public class BeamBrain extends DefaultBrain {
+    private final int depth;
+    private final int beamWidth;
+
+    // The pool: the current beam and the next one, swapped after each piece
+    private Board[] beam = new Board[0];
+    private Board[] nextBeam = new Board[0];
+
+    // For each board in the beam: its placements, and the first placement
+    // (rotation, x, y) that led to it
+    private int[][] beamPlacements;
+    private int[] rootRotation;
+    private int[] rootX;
+    private int[] rootY;
+    private int[] nextRootRotation;
+    private int[] nextRootX;
+    private int[] nextRootY;
+
+    // The best placements found so far for the next beam, best first
+    private double[] candidateScores;
+    private int[] candidateBoards;
+    private int[] candidateIndexes;
+
+	/* Constructor: BeamBrain
+	 * ----------------------
+	 * Creates a brain that looks at up to depth pieces (the current one and
+	 * depth-1 from the preview), keeping beamWidth boards after each.
+	 */
+    public BeamBrain(int depth, int beamWidth) {
+        if (depth < 1 || beamWidth < 1) throw new RuntimeException("Beam search needs a depth and width of at least 1");
+        this.depth = depth;
+        this.beamWidth = beamWidth;
+
+        beamPlacements = new int[beamWidth][0];
+        rootRotation = new int[beamWidth];
+        rootX = new int[beamWidth];
+        rootY = new int[beamWidth];
+        nextRootRotation = new int[beamWidth];
+        nextRootX = new int[beamWidth];
+        nextRootY = new int[beamWidth];
+        candidateScores = new double[beamWidth];
+        candidateBoards = new int[beamWidth];
+        candidateIndexes = new int[beamWidth];
+    }
+
+	/* Method: getBeamWidth
+	 * --------------------
+	 * Returns the number of boards kept after each piece.
+	 */
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+	/* Method: getPoolBoards
+	 * ---------------------
+	 * Returns the boards of the pool, the current beam first, so tests can
+	 * check that they are reused.
+	 */
+    Board[] getPoolBoards() {
+        final Board[] boards = new Board[beam.length + nextBeam.length];
+        System.arraycopy(beam, 0, boards, 0, beam.length);
+        System.arraycopy(nextBeam, 0, boards, beam.length, nextBeam.length);
+        return boards;
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * With no preview, plays like DefaultBrain.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, new Piece[0], limitHeight, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * Given a piece, the pieces after it and a board, returns a move object
+     * for the current piece, or returns null if no play is possible.
+     * See the Brain interface for details.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, limitHeight, Long.MAX_VALUE, null, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * As above, but if the deadline passes or the token is cancelled, the
+	 * pieces left are not looked at and the best board of the beam so far
+	 * decides the move. A piece's beam is always finished once it is started.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight,
+                               long deadline, CancellationToken token, Brain.Move move) {
+        // Allocate a move object if necessary
+        if (move==null) move = new Brain.Move();
+
+        board.commit();
+        ensurePool(board);
+
+        final int levels = 1 + Math.min(depth-1, preview.length);
+        int beamSize = 0;
+        for (int level = 0; level < levels; level++) {
+            final Piece current = (level == 0) ? piece : preview[level-1];
+
+            // rate every placement on every board, keeping the best beamWidth
+            final int parents = (level == 0) ? 1 : beamSize;
+            int kept = 0;
+            for (int b = 0; b < parents; b++) {
+                final Board parent = (level == 0) ? board : beam[b];
+                final int count = parent.evaluatePlacements(current, limitHeight, beamPlacements[b]);
+                for (int i = 0; i<count; i++) {
+                    kept = keepCandidate(ratePlacement(parent, current, beamPlacements[b], i), b, i, kept);
+                }
+            }
+
+            // every board is a dead end: play the best of the last beam, if there is one
+            if (kept == 0) break;
+
+            // the last piece is only rated; otherwise the kept placements become the next beam
+            if (level == levels-1) {
+                return makeMove(piece, level, candidateBoards[0], candidateIndexes[0], candidateScores[0], move);
+            }
+            for (int k = 0; k < kept; k++) {
+                final int b = candidateBoards[k];
+                final int base = candidateIndexes[k] * Board.EVAL_STRIDE;
+                final Board parent = (level == 0) ? board : beam[b];
+                nextBeam[k].copyFrom(parent);
+                Piece rotated = current;
+                for (int r = beamPlacements[b][base + Board.EVAL_ROTATION]; r>0; r--) rotated = rotated.fastRotation();
+                nextBeam[k].place(rotated, beamPlacements[b][base + Board.EVAL_X], beamPlacements[b][base + Board.EVAL_Y]);
+                nextBeam[k].clearRows();
+                nextBeam[k].commit();
+
+                if (level == 0) {
+                    nextRootRotation[k] = beamPlacements[b][base + Board.EVAL_ROTATION];
+                    nextRootX[k] = beamPlacements[b][base + Board.EVAL_X];
+                    nextRootY[k] = beamPlacements[b][base + Board.EVAL_Y];
+                } else {
+                    nextRootRotation[k] = rootRotation[b];
+                    nextRootX[k] = rootX[b];
+                    nextRootY[k] = rootY[b];
+                }
+            }
+            swapBeams();
+            beamSize = kept;
+            if (CancellationToken.isExpired(deadline, token)) break;
+        }
+
+        if (beamSize == 0) return(null);    // could not find a play at all!
+
+        // the beam is kept best first, so its first board is the best one reached
+        Piece bestPiece = piece;
+        for (int r = rootRotation[0]; r>0; r--) bestPiece = bestPiece.fastRotation();
+        move.x = rootX[0];
+        move.y = rootY[0];
+        move.piece = bestPiece;
+        move.score = rateBoard(beam[0]);
+        return(move);
+    }
+
+    /* Method: keepCandidate
+     * ---------------------
+     * Adds placement index of beam board b with the given score to the
+     * candidates if it is among the best beamWidth so far (ties go to the
+     * one found first). Returns the new number of candidates.
+     */
+    private int keepCandidate(double score, int b, int index, int kept) {
+        if (score >= 1e20) return kept;
+        if (kept == beamWidth && score >= candidateScores[kept-1]) return kept;
+
+        int k = (kept < beamWidth) ? kept++ : kept-1;
+        while (k > 0 && candidateScores[k-1] > score) {
+            candidateScores[k] = candidateScores[k-1];
+            candidateBoards[k] = candidateBoards[k-1];
+            candidateIndexes[k] = candidateIndexes[k-1];
+            k--;
+        }
+        candidateScores[k] = score;
+        candidateBoards[k] = b;
+        candidateIndexes[k] = index;
+        return kept;
+    }
+
+    /* Method: makeMove
+     * ----------------
+     * Fills in the move for the first placement on the way to the given
+     * placement of the given level.
+     */
+    private Brain.Move makeMove(Piece piece, int level, int b, int index, double score, Brain.Move move) {
+        final int base = index * Board.EVAL_STRIDE;
+        final int rotation = (level == 0) ? beamPlacements[b][base + Board.EVAL_ROTATION] : rootRotation[b];
+        Piece bestPiece = piece;
+        for (int r = rotation; r>0; r--) bestPiece = bestPiece.fastRotation();
+
+        move.x = (level == 0) ? beamPlacements[b][base + Board.EVAL_X] : rootX[b];
+        move.y = (level == 0) ? beamPlacements[b][base + Board.EVAL_Y] : rootY[b];
+        move.piece = bestPiece;
+        move.score = score;
+        return(move);
+    }
+
+    /* Method: swapBeams
+     * -----------------
+     * Makes the next beam the current one, and the current one free for reuse.
+     */
+    private void swapBeams() {
+        final Board[] boards = beam;
+        beam = nextBeam;
+        nextBeam = boards;
+
+        int[] swap = rootRotation;
+        rootRotation = nextRootRotation;
+        nextRootRotation = swap;
+        swap = rootX;
+        rootX = nextRootX;
+        nextRootX = swap;
+        swap = rootY;
+        rootY = nextRootY;
+        nextRootY = swap;
+    }
+
+    /* Method: ensurePool
+     * ------------------
+     * Makes sure the pool holds boards and placement buffers the size of
+     * the given board. They are only made again if the board size changes.
+     */
+    private void ensurePool(Board board) {
+        if (beam.length > 0 && beam[0].getWidth() == board.getWidth() && beam[0].getHeight() == board.getHeight()) return;
+
+        beam = new Board[beamWidth];
+        nextBeam = new Board[beamWidth];
+        for (int k = 0; k < beamWidth; k++) {
+            beam[k] = new Board(board.getWidth(), board.getHeight());
+            nextBeam[k] = new Board(board.getWidth(), board.getHeight());
+            beamPlacements[k] = new int[Board.EVAL_STRIDE * 4 * board.getWidth()];
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class BeamBrainTest {
+	private Piece[] pieces;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+	}
+
+	// A beam one board wide and one piece deep is DefaultBrain, preview or not
+	@Test
+	public void testOneByOne() {
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new BeamBrain(1, 1), new Board(10, 24), 0, 80, 17);
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new BeamBrain(1, 1), new Board(10, 24), 3, 80, 17);
+	}
+
+	// With no preview to look at, any beam is DefaultBrain
+	@Test
+	public void testNoPreview() {
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new BeamBrain(4, 16), new Board(10, 24), 0, 80, 17);
+	}
+
+	// A passed deadline stops the beam after the current piece, and the move is still a legal one
+	@Test
+	public void testDeadline() {
+		BeamBrain beam = new BeamBrain(4, 16);
+		Board board = new Board(10, 24);
+		Piece[] preview = { pieces[1], pieces[2], pieces[3] };
+		Brain.Move late = beam.bestMove(board, pieces[0], preview, 20, System.nanoTime() - 1, null, null);
+		Brain.Move plain = new DefaultBrain().bestMove(board, pieces[0], 20, null);
+		assertEquals(plain.piece, late.piece);
+		assertEquals(plain.x, late.x);
+		assertEquals(plain.y, late.y);
+	}
+
+	// With the whole first piece's placements in the beam, a piece of preview can change the move: the beam's
+	// board after both pieces is never worse than the one DefaultBrain's greedy moves reach, and sometimes better
+	@Test
+	public void testPreviewChangesMove() {
+		BeamBrain beam = new BeamBrain(2, 64);
+		DefaultBrain plain = new DefaultBrain();
+		Board board = new Board(10, 24);
+		Random random = new Random(5);
+		Piece[] preview = new Piece[1];
+		Brain.Move move = new Brain.Move();
+		Brain.Move greedy = new Brain.Move();
+		int changed = 0;
+		for (int i = 0; i < 60; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			preview[0] = pieces[random.nextInt(pieces.length)];
+			if (beam.bestMove(board, piece, preview, 20, move) == null) break;
+			assertNotNull(plain.bestMove(board, piece, 20, greedy));
+			if (greedy.piece != move.piece || greedy.x != move.x) {
+				changed++;
+
+				// DefaultBrain's move, then its move for the preview piece
+				int mark = board.mark();
+				board.place(greedy.piece, greedy.x, greedy.y);
+				board.clearRows();
+				board.commit();
+				Brain.Move next = plain.bestMove(board, preview[0], 20, null);
+				board.rollback(mark);
+				board.release(mark);
+				if (next != null) assertTrue(move.score <= next.score + 1e-9);
+			}
+
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+		assertTrue(changed > 0);
+	}
+
+	// The pool is made once for a board size and reused from move to move, so a decision allocates no boards
+	@Test
+	public void testPoolReused() {
+		BeamBrain beam = new BeamBrain(3, 4);
+		Board board = new Board(10, 24);
+		Random random = new Random(9);
+		Piece[] preview = new Piece[2];
+		Brain.Move move = new Brain.Move();
+		Board[] pool = null;
+		for (int i = 0; i < 40; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			for (int p = 0; p < preview.length; p++) preview[p] = pieces[random.nextInt(pieces.length)];
+			if (beam.bestMove(board, piece, preview, 20, move) == null) break;
+
+			Board[] boards = beam.getPoolBoards();
+			assertEquals(2 * beam.getBeamWidth(), boards.length);
+			if (pool == null) pool = boards;
+			for (Board poolBoard : pool) {
+				boolean found = false;
+				for (Board b : boards) found |= (b == poolBoard);
+				assertTrue(found);
+			}
+
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+	}
+}
@@ -5,29 +5,82 @@
  * Has an "undo" feature that allows clients to add and remove pieces efficiently.
  * Does not do any drawing or have any idea of pixels. Instead,
  * just represents the abstract 2-d board.
+ *
+ * Implementation: the grid is stored as a bitboard. Each row is a bit mask
+ * spread over rowWords longs (one long for boards up to 64 columns wide),
+ * with column x stored in bit (x % 64) of word (x / 64). Filling cells,
+ * detecting full rows and shifting rows are then a few word operations per row.
+ * The rows form a circular buffer, so the grid can move up or down by
+ * changing the buffer's starting row rather than moving the rows themselves.
  */
 package tetris;
 
+import java.util.Arrays;
+
 public class Board	{
 	private int maxHeight;
-	private int maxHeightBackup;
 	
 	private int width;
 	private int height;
 	
-	// The abstract representation of the 2-d board is stored via grid and gridBackup
-	private boolean[][] grid;
-	private boolean[][] gridBackup;
+	// The abstract representation of the 2-d board is stored via rows, a circular
+	// buffer of rows starting at row rowStart. Row y is kept in slot(y), occupying
+	// rows[slot(y)*rowWords] through rows[slot(y)*rowWords + rowWords-1].
+	private int rowWords;
+	private long[] rows;
+	private int rowStart;
 	
-	// wArray and wArrayBackup store information regarding how filled given rows are
+	// wArray stores information regarding how filled given rows are, indexed by slot like rows
 	private int wArray[];
-	private int wArrayBackup[];
 	
-	// hArray and hArrayBackup store information regarding how filled given columns are
+	// fullRows holds the rows that are currently full, in no particular order, so
+	// that clearRows() does not have to look for them
+	private int[] fullRows;
+	private int fullCount;
+	
+	// hArray stores information regarding how filled given columns are
 	private int hArray[];
-	private int hArrayBackup[];
 	
-	private boolean DEBUG = true;
+	// fArray stores the number of filled blocks in each column, and baseArray the
+	// height of the solid run of blocks at the bottom of each column (the y of its
+	// lowest hole, or its height if it has none)
+	private int fArray[];
+	private int baseArray[];
+	
+	// Scratch space for evaluatePlacements(): the drop height at each x
+	private int[] drops;
+	
+	// Board features kept up to date by place, clearRows and undo -- see getFeatures()
+	private int aggregateHeight;
+	private int cellCount;
+	private int coveredCells;
+	private int bumpiness;
+	private int wells;
+	private int rowTransitions;
+	private int columnTransitions;
+	
+	// The undo journal: a stack of records, one per place, clearRows or addGarbage, each holding
+	// just what that operation changed. undo() unwinds the journal back to barrier.
+	private int[] journal;
+	private int journalSize;
+	private int barrier;
+	
+	// Journal positions of the open savepoints -- see mark()
+	private int[] marks;
+	private int markCount;
+	
+	// Bits of the last word of a row that hold columns, used to rebuild full rows
+	private long lastWordMask;
+	
+	// Zobrist-style hash of the grid: the XOR over every row word of rowHash(),
+	// kept up to date by place, clearRows and undo
+	private long hash;
+	
+	// Whole-grid row operations, scalar or on the Vector API -- see RowOps
+	private static final RowOps ROW_OPS = RowOps.get();
+	
+	// sanityCheck() is expensive, so it only runs when assertions are enabled (as they are under test)
+	private static final boolean DEBUG = Board.class.desiredAssertionStatus();
 	boolean committed;
 		
 	/* Constructor: Board
@@ -39,17 +92,26 @@ public class Board	{
 		this.width = width;
 		this.height = height;
 		
-		grid = new boolean[width][height];
-		gridBackup = new boolean[width][height];
+		rowWords = (width + 63) >>> 6;
+		rows = new long[height * rowWords];
+		lastWordMask = ((width & 63) == 0) ? -1L : (1L << width) - 1;
 		
 		wArray = new int[height];
-		wArrayBackup = new int[height];
+		fullRows = new int[4];
 		
 		hArray = new int[width];
-		hArrayBackup = new int[width];
+		fArray = new int[width];
+		baseArray = new int[width];
+		drops = new int[width];
+		
+		// on the empty board, each column has a transition where the floor meets an empty cell
+		columnTransitions = width;
+		heightFeaturesOf(0, width, 1);
+		
+		journal = new int[64];
+		marks = new int[8];
 		
 		maxHeight = 0;
-		maxHeightBackup = 0;
 		committed = true;
 	}
 	
@@ -91,7 +153,7 @@ public class Board	{
 			for (int y = height-1; y >= 0; y--) {
 				System.out.println("-----------------");
 				for(int x = 0; x < width; x++) {
-					System.out.print(" | " + grid[x][y] + " | ");
+					System.out.print(" | " + getGrid(x, y) + " | ");
 				}	
 				System.out.println();
 			}
@@ -110,7 +172,7 @@ public class Board	{
 			// check if the height array matches the board state
 			for (int curCol = 0; curCol < width; curCol++) {
 				int colHeight = height-1;
-				while(colHeight >= 0 && !grid[curCol][colHeight]) colHeight--;
+				while(colHeight >= 0 && !getGrid(curCol, colHeight)) colHeight--;
 				colHeight++;
 				if (colHeight > max) max = colHeight;
 				if (hArray[curCol] != colHeight) throw new RuntimeException("hArray[" + curCol + "] incorrect");
@@ -120,13 +182,38 @@ public class Board	{
 			if (max != maxHeight) throw new RuntimeException("maxHeight incorrect");
 		
 			// check if the width array matches the board state
+			int[] widths = new int[height];
+			ROW_OPS.rowWidths(rows, rowWords, height, widths);
 			for (int curRow = 0; curRow < height; curRow++) {
-				int numBlocks = 0;
-				for(int curCol = 0; curCol < width; curCol++) {
-					if (grid[curCol][curRow]) numBlocks++;
-				}
-				if (numBlocks != wArray[curRow]) throw new RuntimeException("wArray[" + curRow + "] incorrect");
+				int numBlocks = widths[slot(curRow)];
+				if (numBlocks != wArray[slot(curRow)]) throw new RuntimeException("wArray[" + curRow + "] incorrect");
+				
+				boolean listed = false;
+				for (int i = 0; i < fullCount; i++) listed |= (fullRows[i] == curRow);
+				if (listed != (numBlocks == width)) throw new RuntimeException("fullRows incorrect for row " + curRow);
 			}
+			
+			// check if the incrementally maintained hash matches the board state
+			long oldHash = hash;
+			hash = 0;
+			hashRows(0, height);
+			long fullHash = hash;
+			hash = oldHash;
+			if (fullHash != hash) throw new RuntimeException("hash incorrect");
+			
+			// check if the incrementally maintained features match the board state
+			int[] features = new int[FEATURE_COUNT];
+			getFeatures(features);
+			int[] oldF = fArray.clone();
+			int[] oldBase = baseArray.clone();
+			int oldCells = cellCount;
+			resetFeatures();
+			int[] fullFeatures = new int[FEATURE_COUNT];
+			getFeatures(fullFeatures);
+			if (!Arrays.equals(oldF, fArray)) throw new RuntimeException("fArray incorrect");
+			if (!Arrays.equals(oldBase, baseArray)) throw new RuntimeException("baseArray incorrect");
+			if (oldCells != cellCount) throw new RuntimeException("cellCount incorrect");
+			if (!Arrays.equals(features, fullFeatures)) throw new RuntimeException("features incorrect: " + Arrays.toString(features) + " vs " + Arrays.toString(fullFeatures));
 		}
 	}
 	
@@ -153,6 +240,38 @@ public class Board	{
 		return firstStop;
 	}
 	
+	/* Method: dropHeights
+	 * -------------------
+	 * Writes dropHeight(piece, x) to out[x] for every x where the piece fits
+	 * across the board, and returns the number of them, width - pieceWidth + 1.
+	 *
+	 * Implementation: rather than walking the skirt, the depths of the columns
+	 * under the piece below the tallest one are looked up in the piece's drop
+	 * table (see Piece.makeDropTable()). Pieces too big for a table use dropHeight().
+	 */
+	public int dropHeights(Piece piece, int[] out) {
+		int pieceWidth = piece.getWidth();
+		int positions = width - pieceWidth + 1;
+		int[] table = piece.getDropTable();
+		if (table == null) {
+			for (int x = 0; x < positions; x++) out[x] = dropHeight(piece, x);
+			return Math.max(positions, 0);
+		}
+		
+		int pieceHeight = piece.getHeight();
+		int deepest = pieceHeight - 1;
+		for (int x = 0; x < positions; x++) {
+			int top = hArray[x];
+			for (int i = 1; i < pieceWidth; i++) {
+				if (hArray[x+i] > top) top = hArray[x+i];
+			}
+			int key = 0;
+			for (int i = pieceWidth-1; i >= 0; i--) key = key*pieceHeight + Math.min(top - hArray[x+i], deepest);
+			out[x] = Math.max(top - table[key], 0);
+		}
+		return Math.max(positions, 0);
+	}
+	
 	/* Method: getColumnHeight
 	 * -----------------------
 	 * Returns the height of the given column --
@@ -169,7 +288,7 @@ public class Board	{
 	 * the given row.
 	 */
 	public int getRowWidth(int y) {
-		 return wArray[y];
+		 return wArray[slot(y)];
 	}
 	
 	/* Method: getRowWidth
@@ -180,7 +299,510 @@ public class Board	{
 	 */
 	public boolean getGrid (int x, int y) {
 		if (x < 0 || x >= width || y < 0 || y >= height) return true;
-		return grid[x][y];
+		return ((rows[slot(y)*rowWords + (x >>> 6)] >>> x) & 1L) != 0;
+	}
+	
+	/* Method: slot
+	 * ------------
+	 * Returns the slot of the circular row buffer that holds row y.
+	 */
+	private int slot(int y) {
+		int s = rowStart + y;
+		return (s >= height) ? s - height : s;
+	}
+	
+	/* Method: getRowWord
+	 * ------------------
+	 * Returns one word of the bit mask for the given row. Used to
+	 * copy the grid into a BoardSnapshot.
+	 */
+	long getRowWord(int y, int word) {
+		return rows[slot(y)*rowWords + word];
+	}
+	
+	/* Method: snapshot
+	 * ----------------
+	 * Returns an immutable BoardSnapshot of the current contents of the board.
+	 */
+	public BoardSnapshot snapshot() {
+		return BoardSnapshot.of(this);
+	}
+	
+	/* Method: loadRows
+	 * ----------------
+	 * Replaces the contents of the board with those of the snapshot, which
+	 * must have the same dimensions, and recomputes the row widths and column
+	 * heights. The journal is emptied and the board left committed.
+	 */
+	void loadRows(BoardSnapshot snapshot) {
+		for (int y = 0; y < height; y++) {
+			for (int word = 0; word < rowWords; word++) {
+				rows[y*rowWords + word] = snapshot.getRowWord(y, word);
+			}
+		}
+		reload();
+	}
+	
+	/* Method: loadRows
+	 * ----------------
+	 * Replaces the contents of the board with those of the off-heap board,
+	 * which must have the same dimensions, as for loadRows(BoardSnapshot).
+	 */
+	void loadRows(OffHeapBoard source) {
+		for (int y = 0; y < height; y++) rows[y] = source.getRow(y);
+		reload();
+	}
+	
+	/* Method: copy
+	 * ------------
+	 * Returns a new board with the same contents as this one. See copyFrom().
+	 */
+	public Board copy() {
+		Board board = new Board(width, height);
+		board.copyFrom(this);
+		return board;
+	}
+	
+	/* Method: copyFrom
+	 * ----------------
+	 * Makes the contents of this board, which must have the same dimensions,
+	 * the same as the other board's. Everything is copied as is, so this costs
+	 * about as much as copying the grid. Only the current contents are taken:
+	 * the journal is emptied and the board left committed.
+	 */
+	public void copyFrom(Board other) {
+		if (other.width != width || other.height != height) throw new RuntimeException("Cannot copy a board of a different size");
+		
+		System.arraycopy(other.rows, 0, rows, 0, rows.length);
+		rowStart = other.rowStart;
+		System.arraycopy(other.wArray, 0, wArray, 0, height);
+		if (fullRows.length < other.fullCount) fullRows = new int[other.fullRows.length];
+		System.arraycopy(other.fullRows, 0, fullRows, 0, other.fullCount);
+		fullCount = other.fullCount;
+		System.arraycopy(other.hArray, 0, hArray, 0, width);
+		System.arraycopy(other.fArray, 0, fArray, 0, width);
+		System.arraycopy(other.baseArray, 0, baseArray, 0, width);
+		
+		maxHeight = other.maxHeight;
+		hash = other.hash;
+		aggregateHeight = other.aggregateHeight;
+		cellCount = other.cellCount;
+		coveredCells = other.coveredCells;
+		bumpiness = other.bumpiness;
+		wells = other.wells;
+		rowTransitions = other.rowTransitions;
+		columnTransitions = other.columnTransitions;
+		
+		journalSize = 0;
+		barrier = 0;
+		markCount = 0;
+		committed = true;
+		sanityCheck();
+	}
+	
+	/* Method: clear
+	 * -------------
+	 * Empties the board, keeping its storage, so that it is the same as a new
+	 * board of its size. The journal is emptied and the board left committed.
+	 */
+	public void clear() {
+		Arrays.fill(rows, 0);
+		reload();
+	}
+	
+	/* Method: reload
+	 * --------------
+	 * Recomputes everything else from rows, which have just been loaded with
+	 * row y in rows[y*rowWords] on, and empties the journal.
+	 */
+	private void reload() {
+		rowStart = 0;
+		ROW_OPS.rowWidths(rows, rowWords, height, wArray);
+		fullCount = 0;
+		for (int y = 0; y < height; y++) {
+			if (wArray[y] == width) addFullRow(y);
+		}
+		maxHeight = height;
+		resetHeightArray();
+		hash = 0;
+		hashRows(0, height);
+		resetFeatures();
+		
+		journalSize = 0;
+		barrier = 0;
+		markCount = 0;
+		committed = true;
+		sanityCheck();
+	}
+	
+	// Indexes of the features in the array filled by getFeatures()
+	public static final int FEATURE_AGGREGATE_HEIGHT = 0;
+	public static final int FEATURE_HOLES = 1;
+	public static final int FEATURE_COVERED_CELLS = 2;
+	public static final int FEATURE_BUMPINESS = 3;
+	public static final int FEATURE_ROW_TRANSITIONS = 4;
+	public static final int FEATURE_COLUMN_TRANSITIONS = 5;
+	public static final int FEATURE_WELLS = 6;
+	public static final int FEATURE_MAX_HEIGHT = 7;
+	public static final int FEATURE_COUNT = 8;
+	
+	/* Method: getColumnHoles
+	 * ----------------------
+	 * Returns the number of holes in the given column -- empty
+	 * blocks below the top block of the column.
+	 */
+	public int getColumnHoles(int x) {
+		return hArray[x] - fArray[x];
+	}
+	
+	/* Method: getColumnCoveredCells
+	 * -----------------------------
+	 * Returns the number of filled blocks in the given column that sit
+	 * above its lowest hole, i.e. the blocks that cover a hole.
+	 */
+	public int getColumnCoveredCells(int x) {
+		return coveredIn(x);
+	}
+	
+	/* Method: getHoles
+	 * ----------------
+	 * Returns the total number of holes in the board. O(1).
+	 */
+	public int getHoles() {
+		return aggregateHeight - cellCount;
+	}
+	
+	/* Method: getCoveredCells
+	 * -----------------------
+	 * Returns the total number of blocks that cover a hole. O(1).
+	 */
+	public int getCoveredCells() {
+		return coveredCells;
+	}
+	
+	/* Method: getAggregateHeight
+	 * --------------------------
+	 * Returns the sum of the column heights. O(1).
+	 */
+	public int getAggregateHeight() {
+		return aggregateHeight;
+	}
+	
+	/* Method: getBumpiness
+	 * --------------------
+	 * Returns the sum of the height differences of adjacent columns. O(1).
+	 */
+	public int getBumpiness() {
+		return bumpiness;
+	}
+	
+	/* Method: getColumnWellDepth
+	 * ----------------------------
+	 * Returns how far the given column is below the lower of its two
+	 * neighbours, or 0 if it is not below both. The side walls count
+	 * as neighbours as tall as the board.
+	 */
+	public int getColumnWellDepth(int x) {
+		int left = (x == 0) ? height : hArray[x-1];
+		int right = (x == width-1) ? height : hArray[x+1];
+		return Math.max(Math.min(left, right) - hArray[x], 0);
+	}
+	
+	/* Method: getWells
+	 * ----------------
+	 * Returns the sum of the well depths of all the columns. O(1).
+	 */
+	public int getWells() {
+		return wells;
+	}
+	
+	/* Method: getRowTransitions
+	 * -------------------------
+	 * Returns the number of times a filled block is next to an empty one
+	 * along a row, summed over the non-empty rows. The side walls count
+	 * as filled. O(1).
+	 */
+	public int getRowTransitions() {
+		return rowTransitions;
+	}
+	
+	/* Method: getColumnTransitions
+	 * ----------------------------
+	 * Returns the number of times a filled block is above or below an empty
+	 * one in a column, summed over the columns. The floor counts as filled,
+	 * so an empty column has one transition. O(1).
+	 */
+	public int getColumnTransitions() {
+		return columnTransitions;
+	}
+	
+	/* Method: getFeatures
+	 * -------------------
+	 * Fills the given array, indexed by the FEATURE_ constants, with the
+	 * current board features. O(1) -- nothing is scanned.
+	 */
+	public void getFeatures(int[] out) {
+		out[FEATURE_AGGREGATE_HEIGHT] = aggregateHeight;
+		out[FEATURE_HOLES] = aggregateHeight - cellCount;
+		out[FEATURE_COVERED_CELLS] = coveredCells;
+		out[FEATURE_BUMPINESS] = bumpiness;
+		out[FEATURE_ROW_TRANSITIONS] = rowTransitions;
+		out[FEATURE_COLUMN_TRANSITIONS] = columnTransitions;
+		out[FEATURE_WELLS] = wells;
+		out[FEATURE_MAX_HEIGHT] = maxHeight;
+	}
+	
+	/* Method: coveredIn
+	 * -----------------
+	 * Returns the number of blocks above the lowest hole of the given column.
+	 */
+	private int coveredIn(int x) {
+		return (hArray[x] > baseArray[x]) ? fArray[x] - baseArray[x] : 0;
+	}
+	
+	/* Method: rowTransitionsIn
+	 * ------------------------
+	 * Returns the row transitions of the given row, or 0 if it is empty.
+	 * Each word is compared with itself shifted by one column, carrying
+	 * the last column of the previous word (or the left wall) in.
+	 */
+	private int rowTransitionsIn(int y) {
+		int base = slot(y)*rowWords;
+		long any = 0;
+		long carry = 1;
+		int count = 0;
+		for (int word = 0; word < rowWords; word++) {
+			long bits = rows[base + word];
+			long valid = (word == rowWords-1) ? lastWordMask : -1L;
+			any |= bits;
+			count += Long.bitCount((bits ^ ((bits << 1) | carry)) & valid);
+			carry = bits >>> 63;
+		}
+		if (any == 0) return 0;
+		
+		// the right wall is filled, so an empty last column is one more transition
+		if (((rows[base + rowWords-1] >>> (width-1)) & 1L) == 0) count++;
+		return count;
+	}
+	
+	/* Method: columnTransitionsAt
+	 * ---------------------------
+	 * Returns the number of columns whose block in row y differs from the one
+	 * in row y-1. Below row 0 is the floor, which counts as filled.
+	 */
+	private int columnTransitionsAt(int y) {
+		int count = 0;
+		for (int word = 0; word < rowWords; word++) {
+			long below = (y == 0) ? ((word == rowWords-1) ? lastWordMask : -1L) : rows[slot(y-1)*rowWords + word];
+			count += Long.bitCount(rows[slot(y)*rowWords + word] ^ below);
+		}
+		return count;
+	}
+	
+	/* Method: columnTransitionsBetween
+	 * --------------------------------
+	 * Returns the column transitions between rows start-1 and end-1, i.e. the sum
+	 * of columnTransitionsAt() for the rows from start up to (not including) end,
+	 * clipped to the board.
+	 */
+	private int columnTransitionsBetween(int start, int end) {
+		int count = 0;
+		for (int y = start; y < end && y < height; y++) count += columnTransitionsAt(y);
+		return count;
+	}
+	
+	/* Method: heightFeaturesOf
+	 * ------------------------
+	 * Takes the given columns' part of the aggregate height, covered cells,
+	 * bumpiness and wells out of the totals (sign -1), or puts it back in
+	 * (sign 1). The bumpiness between the columns and their neighbours, and the
+	 * wells of the neighbours, are included since they depend on both heights.
+	 */
+	private void heightFeaturesOf(int x, int columns, int sign) {
+		int end = x + columns;
+		for (int col = x; col < end; col++) {
+			aggregateHeight += sign * hArray[col];
+			coveredCells += sign * coveredIn(col);
+		}
+		for (int col = Math.max(x-1, 0); col < end && col < width-1; col++) {
+			bumpiness += sign * Math.abs(hArray[col] - hArray[col+1]);
+		}
+		for (int col = Math.max(x-1, 0); col <= end && col < width; col++) {
+			wells += sign * getColumnWellDepth(col);
+		}
+	}
+	
+	/* Method: resetFeatures
+	 * ---------------------
+	 * Recomputes the per column counts and all the features from scratch.
+	 * Used when a whole grid is loaded, and by sanityCheck().
+	 */
+	private void resetFeatures() {
+		Arrays.fill(fArray, 0);
+		cellCount = 0;
+		rowTransitions = 0;
+		for (int y = 0; y < height; y++) {
+			for (int word = 0; word < rowWords; word++) {
+				long bits = rows[slot(y)*rowWords + word];
+				while (bits != 0) {
+					fArray[(word << 6) + Long.numberOfTrailingZeros(bits)]++;
+					bits &= bits-1;
+				}
+			}
+			cellCount += wArray[slot(y)];
+			rowTransitions += rowTransitionsIn(y);
+		}
+		
+		// a column's solid run ends at the first row where its bit is clear
+		for (int word = 0; word < rowWords; word++) {
+			long solid = (word == rowWords-1) ? lastWordMask : -1L;
+			for (int y = 0; y < height && solid != 0; y++) {
+				long ended = solid & ~rows[slot(y)*rowWords + word];
+				solid &= ~ended;
+				while (ended != 0) {
+					baseArray[(word << 6) + Long.numberOfTrailingZeros(ended)] = y;
+					ended &= ended-1;
+				}
+			}
+			while (solid != 0) {
+				baseArray[(word << 6) + Long.numberOfTrailingZeros(solid)] = height;
+				solid &= solid-1;
+			}
+		}
+		
+		aggregateHeight = 0;
+		coveredCells = 0;
+		bumpiness = 0;
+		wells = 0;
+		heightFeaturesOf(0, width, 1);
+		columnTransitions = columnTransitionsBetween(0, height);
+	}
+	
+	/* Method: rowHash
+	 * ---------------
+	 * Returns the contribution of one row word to the board hash. The word
+	 * is mixed with a key for its position in the grid (y*rowWords + word,
+	 * whatever slot the row is kept in), in the spirit of
+	 * Zobrist hashing; empty words contribute 0 so that the empty part of
+	 * the board never needs to be hashed.
+	 */
+	private static long rowHash(int index, long bits) {
+		if (bits == 0) return 0;
+		long z = bits ^ ((index + 1) * 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/* Method: hashRows
+	 * ----------------
+	 * Toggles the contributions of the rows from start up to (not including)
+	 * end in the board hash -- XORing them in if they are out, or out if they are in.
+	 */
+	private void hashRows(int start, int end) {
+		for (int y = start; y < end; y++) {
+			int base = slot(y)*rowWords;
+			for (int word = 0; word < rowWords; word++) {
+				hash ^= rowHash(y*rowWords + word, rows[base + word]);
+			}
+		}
+	}
+	
+	/* Method: getZobristHash
+	 * ----------------------
+	 * Returns a 64-bit hash of the grid contents. It is maintained incrementally,
+	 * so this is O(1). Equal boards always have equal hashes.
+	 */
+	public long getZobristHash() {
+		return hash;
+	}
+	
+	/* Method: placementHash
+	 * ---------------------
+	 * Returns the getZobristHash() the board would have after place(piece, x, y)
+	 * and clearRows(), without changing the board. The placement must be one
+	 * place() would accept. Without cleared rows only the piece's rows are
+	 * rehashed; otherwise every row from the piece's first row up is.
+	 */
+	public long placementHash(Piece piece, int x, int y) {
+		long[] rowMasks = piece.getRowMasks();
+		int word = x >>> 6;
+		int shift = x & 63;
+		
+		long cleared = 0;
+		for (int i = 0; i < rowMasks.length; i++) {
+			if (wArray[slot(y+i)] + Long.bitCount(rowMasks[i]) == width) cleared |= 1L << i;
+		}
+		
+		long result = hash;
+		if (cleared == 0) {
+			for (int i = 0; i < rowMasks.length; i++) {
+				int index = slot(y+i)*rowWords + word;
+				int key = (y+i)*rowWords + word;
+				long low = rows[index] | (rowMasks[i] << shift);
+				result ^= rowHash(key, rows[index]) ^ rowHash(key, low);
+				if (shift != 0 && (rowMasks[i] >>> (64 - shift)) != 0) {
+					long high = rows[index+1] | (rowMasks[i] >>> (64 - shift));
+					result ^= rowHash(key+1, rows[index+1]) ^ rowHash(key+1, high);
+				}
+			}
+			return result;
+		}
+		
+		// take out every row from the piece's first row up, and put back the survivors moved down
+		int top = Math.max(maxHeight, y + rowMasks.length);
+		int to = y;
+		for (int row = y; row < top; row++) {
+			int i = row - y;
+			boolean inPiece = i >= 0 && i < rowMasks.length;
+			if (inPiece && ((cleared >>> i) & 1L) != 0) {
+				for (int w = 0; w < rowWords; w++) result ^= rowHash(row*rowWords + w, rows[slot(row)*rowWords + w]);
+				continue;
+			}
+			for (int w = 0; w < rowWords; w++) {
+				long bits = rows[slot(row)*rowWords + w];
+				result ^= rowHash(row*rowWords + w, bits);
+				if (inPiece) {
+					if (w == word) bits |= rowMasks[i] << shift;
+					else if (w == word+1 && shift != 0) bits |= rowMasks[i] >>> (64 - shift);
+				}
+				result ^= rowHash(to*rowWords + w, bits);
+			}
+			to++;
+		}
+		return result;
+	}
+	
+	/* Method: hashCode
+	 * ----------------
+	 * Returns the board hash folded to an int, consistent with equals().
+	 */
+	@Override
+	public int hashCode() {
+		return (int)(hash ^ (hash >>> 32));
+	}
+	
+	/* Method: equals
+	 * --------------
+	 * Returns true if the other object is a Board of the same size with the same
+	 * blocks filled in. The hashes are compared first, so unequal boards are
+	 * almost always rejected in O(1). Only the grid matters, not whether
+	 * either board is committed.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof Board)) return false;
+		Board other = (Board)obj;
+		
+		if (hash != other.hash || width != other.width || height != other.height) return false;
+		if (maxHeight != other.maxHeight) return false;
+		for (int y = 0; y < maxHeight; y++) {
+			for (int word = 0; word < rowWords; word++) {
+				if (getRowWord(y, word) != other.getRowWord(y, word)) return false;
+			}
+		}
+		return true;
 	}
 	
 	public static final int PLACE_OK = 0;
@@ -188,6 +810,156 @@ public class Board	{
 	public static final int PLACE_OUT_BOUNDS = 2;
 	public static final int PLACE_BAD = 3;
 	
+	// Layout of the results of evaluatePlacements(), EVAL_STRIDE ints per placement
+	public static final int EVAL_ROTATION = 0;		// number of fastRotation() steps from the given piece
+	public static final int EVAL_X = 1;
+	public static final int EVAL_Y = 2;				// the drop height
+	public static final int EVAL_ROWS_CLEARED = 3;
+	public static final int EVAL_MAX_HEIGHT = 4;	// getMaxHeight() once the rows are cleared
+	public static final int EVAL_HEIGHT_DELTA = 5;	// change in getAggregateHeight()
+	public static final int EVAL_HOLES_DELTA = 6;	// change in getHoles()
+	public static final int EVAL_ERODED = 7;		// rows cleared times the piece blocks in them
+	public static final int EVAL_STRIDE = 8;
+	
+	/* Method: evaluatePlacements
+	 * --------------------------
+	 * Finds every place the piece can be dropped -- each rotation in its
+	 * fastRotation() chain at each x -- and writes EVAL_STRIDE ints per placement
+	 * to out, describing the board as it would be after place() and clearRows().
+	 * Placements that would stick up above limitHeight are skipped. Returns the
+	 * number of placements written, in the order DefaultBrain has always tried
+	 * them: rotation by rotation, then by x.
+	 *
+	 * The board is not changed, so nothing is journaled or undone. Rows are only
+	 * scanned for columns whose top block sits in a cleared row.
+	 * out must have room for EVAL_STRIDE ints for each rotation at each x;
+	 * a piece has at most 4 rotations, so 4*getWidth() placements is always enough.
+	 */
+	public int evaluatePlacements(Piece piece, int limitHeight, int[] out) {
+		int count = 0;
+		int rotation = 0;
+		Piece current = piece;
+		
+		// pieces not interned by PieceRegistry have no rotation chain, so only they are tried
+		while (current != null) {
+			count = evaluateRotation(current, rotation, 0, width, limitHeight, out, count);
+			current = current.fastRotation();
+			rotation++;
+			if (current == piece) break;
+		}
+		return count;
+	}
+	
+	/* Method: evaluatePlacements
+	 * --------------------------
+	 * Like evaluatePlacements() above, for just one rotation of the piece at
+	 * the x values from firstX up to (not including) endX. rotation is only
+	 * written to EVAL_ROTATION. This lets the placements be split up among
+	 * several threads, each with its own copy() of the board.
+	 */
+	public int evaluatePlacements(Piece piece, int rotation, int firstX, int endX, int limitHeight, int[] out) {
+		return evaluateRotation(piece, rotation, firstX, endX, limitHeight, out, 0);
+	}
+	
+	/* Method: evaluateRotation
+	 * ------------------------
+	 * Writes the placements of one rotation at x from firstX up to endX to out,
+	 * starting at placement count. Returns the new count.
+	 */
+	private int evaluateRotation(Piece piece, int rotation, int firstX, int endX, int limitHeight, int[] out, int count) {
+		int pieceWidth = piece.getWidth();
+		int pieceHeight = piece.getHeight();
+		long[] rowMasks = piece.getRowMasks();
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		int yBound = Math.min(limitHeight, height) - pieceHeight;
+		
+		// the top of the piece in each of its columns
+		int[] tops = new int[pieceWidth];
+		for (int i = 0; i < bodyX.length; i++) {
+			if (bodyY[i]+1 > tops[bodyX[i]]) tops[bodyX[i]] = bodyY[i]+1;
+		}
+		
+		int positions = Math.min(dropHeights(piece, drops), endX);
+		for (int x = Math.max(firstX, 0); x < positions; x++) {
+			int y = drops[x];
+			if (y > yBound) continue;
+			
+			// bit i of cleared is set if row y+i would be filled
+			long cleared = 0;
+			int eroded = 0;
+			for (int i = 0; i < pieceHeight; i++) {
+				int rowCells = Long.bitCount(rowMasks[i]);
+				if (wArray[slot(y+i)] + rowCells == width) {
+					cleared |= 1L << i;
+					eroded += rowCells;
+				}
+			}
+			int rowsCleared = Long.bitCount(cleared);
+			
+			// the piece lands on top of every column it covers, so only those columns grow,
+			// unless rows are cleared and every column may come down
+			int heightDelta = 0;
+			int newMaxHeight = 0;
+			if (rowsCleared == 0) {
+				for (int i = 0; i < pieceWidth; i++) heightDelta += y + tops[i] - hArray[x+i];
+				newMaxHeight = Math.max(maxHeight, y + pieceHeight);
+			} else {
+				for (int col = 0; col < width; col++) {
+					int top = (col >= x && col < x + pieceWidth) ? y + tops[col-x] : hArray[col];
+					int newHeight = heightAfterClear(rowMasks, x, y, cleared, col, top);
+					heightDelta += newHeight - hArray[col];
+					if (newHeight > newMaxHeight) newMaxHeight = newHeight;
+				}
+			}
+			
+			// holes = aggregate height - blocks, and the blocks change by the piece less the cleared rows
+			int base = count * EVAL_STRIDE;
+			out[base + EVAL_ROTATION] = rotation;
+			out[base + EVAL_X] = x;
+			out[base + EVAL_Y] = y;
+			out[base + EVAL_ROWS_CLEARED] = rowsCleared;
+			out[base + EVAL_MAX_HEIGHT] = newMaxHeight;
+			out[base + EVAL_HEIGHT_DELTA] = heightDelta;
+			out[base + EVAL_HOLES_DELTA] = heightDelta - bodyX.length + rowsCleared*width;
+			out[base + EVAL_ERODED] = rowsCleared * eroded;
+			count++;
+		}
+		return count;
+	}
+	
+	/* Method: heightAfterClear
+	 * ------------------------
+	 * Returns the height the given column would have once the piece is placed
+	 * at x,y and the rows in the cleared mask (bit i for row y+i) are removed.
+	 * top is the column's height after the placement. The column comes down by
+	 * the cleared rows below its top; if its top block is itself cleared, the
+	 * column is scanned down for the highest block that survives.
+	 */
+	private int heightAfterClear(long[] rowMasks, int x, int y, long cleared, int col, int top) {
+		for (int row = top-1; row >= 0; row--) {
+			int i = row - y;
+			if (i >= 0 && ((cleared >>> i) & 1L) != 0) continue;
+			
+			if (row == top-1 || filledAfterPlace(rowMasks, x, y, col, row)) {
+				int below = (i < 0) ? 0 : Long.bitCount(cleared & ((1L << i) - 1));
+				return row+1 - below;
+			}
+		}
+		return 0;
+	}
+	
+	/* Method: filledAfterPlace
+	 * ------------------------
+	 * Returns true if the given block is filled in the grid or by the piece at x,y.
+	 */
+	private boolean filledAfterPlace(long[] rowMasks, int x, int y, int col, int row) {
+		if (((rows[slot(row)*rowWords + (col >>> 6)] >>> col) & 1L) != 0) return true;
+		int i = row - y;
+		int j = col - x;
+		return i >= 0 && i < rowMasks.length && j >= 0 && j < 64 && ((rowMasks[i] >>> j) & 1L) != 0;
+	}
+	
 	/* Method: inBounds
 	 * ----------------
 	 * Returns if a given x,y coordinate is in bounds with respect to the grid.
@@ -196,23 +968,57 @@ public class Board	{
 		return (x >= 0 && x+pW <= width && y >= 0 && y+pH <= height);
 	}
 	
-	/* Method: updateBackups
-	 * -----------------------
-	 * Updates grid backup data to match the current grid data. The combination
-	 * of backup and current data is used so that the grid can be updated (i.e.
-	 * pieces can be moved, rows can be cleared, etc.) while also having the
-	 * functionality to revert to a previous state if something goes wrong.
-	 * 
-	 * Note: More is explained in the comments for the "place" method.
+	// Record types, stored on top of each journal record
+	private static final int RECORD_PLACE = 1;
+	private static final int RECORD_CLEAR = 2;
+	private static final int RECORD_GARBAGE = 3;
+	
+	// Number of ints pushState() adds to the journal
+	private static final int STATE_INTS = 10;
+	
+	/* Method: pushState
+	 * -----------------
+	 * Saves the board-wide values (maxHeight, the hash and the feature totals)
+	 * at the bottom of a new journal record, so that undoing the record
+	 * puts them back in O(1).
 	 */
-	private void updateBackups() {
-		maxHeightBackup = maxHeight;
-		
-		System.arraycopy(wArray, 0, wArrayBackup, 0, height);
-		System.arraycopy(hArray, 0, hArrayBackup, 0, width);
-		
-		for (int curCol = 0; curCol < width; curCol++) {
-			System.arraycopy(grid[curCol], 0, gridBackup[curCol], 0, height);
+	private void pushState() {
+		journal[journalSize++] = maxHeight;
+		journal[journalSize++] = (int)(hash >>> 32);
+		journal[journalSize++] = (int)hash;
+		journal[journalSize++] = aggregateHeight;
+		journal[journalSize++] = cellCount;
+		journal[journalSize++] = coveredCells;
+		journal[journalSize++] = bumpiness;
+		journal[journalSize++] = wells;
+		journal[journalSize++] = rowTransitions;
+		journal[journalSize++] = columnTransitions;
+	}
+	
+	/* Method: popState
+	 * ----------------
+	 * Restores the values saved by pushState().
+	 */
+	private void popState() {
+		columnTransitions = journal[--journalSize];
+		rowTransitions = journal[--journalSize];
+		wells = journal[--journalSize];
+		bumpiness = journal[--journalSize];
+		coveredCells = journal[--journalSize];
+		cellCount = journal[--journalSize];
+		aggregateHeight = journal[--journalSize];
+		hash = (journal[--journalSize] & 0xFFFFFFFFL);
+		hash |= ((long)journal[--journalSize]) << 32;
+		maxHeight = journal[--journalSize];
+	}
+	
+	/* Method: ensureJournal
+	 * ---------------------
+	 * Makes room for the given number of ints on top of the journal.
+	 */
+	private void ensureJournal(int extra) {
+		if (journalSize + extra > journal.length) {
+			journal = Arrays.copyOf(journal, Math.max(journal.length * 2, journalSize + extra));
 		}
 	}
 	
@@ -235,7 +1041,6 @@ public class Board	{
 		// flag !committed problem
 		if (!committed) throw new RuntimeException("place commit problem");
 		committed = false;
-		updateBackups();
 		
 		int result = PLACE_OK;
 		int pieceWidth = piece.getWidth();
@@ -245,45 +1050,156 @@ public class Board	{
 		// if the y place is lower than the dropHeight, the placement is bad - does not check for floating placements
 		if (y < dropHeight(piece, x)) return PLACE_BAD;
 		
-		for (TPoint pt : piece.getBody()) {
-			int xCoord = x + pt.x;
-			int yCoord = y + pt.y;
-			if (yCoord+1 > maxHeight) maxHeight = yCoord+1;
-			
-			grid[xCoord][yCoord] = true;
+		// the place record is [state] [old heights of the covered columns] [old bases of the covered columns]
+		// [x,y of each cell] [x, pieceWidth, cells, RECORD_PLACE]
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		int cells = bodyX.length;
+		ensureJournal(STATE_INTS + 2*pieceWidth + 2*cells + 4);
+		pushState();
+		int heightsAt = journalSize;
+		System.arraycopy(hArray, x, journal, journalSize, pieceWidth);
+		journalSize += pieceWidth;
+		System.arraycopy(baseArray, x, journal, journalSize, pieceWidth);
+		journalSize += pieceWidth;
+		heightFeaturesOf(x, pieceWidth, -1);
+		
+		for (int i = 0; i < cells; i++) {
+			int xCoord = x + bodyX[i];
+			int yCoord = y + bodyY[i];
+			journal[journalSize++] = xCoord;
+			journal[journalSize++] = yCoord;
 			if (yCoord+1 > hArray[xCoord]) hArray[xCoord] = yCoord+1;
-			wArray[yCoord]++;
-			if (wArray[yCoord] == width) result = PLACE_ROW_FILLED;
+			fArray[xCoord]++;
 		}
 		
+		// the piece's rows, and the column transitions from just below them to just above, change
+		hashRows(y, y + pieceHeight);
+		for (int i = 0; i < pieceHeight; i++) rowTransitions -= rowTransitionsIn(y+i);
+		columnTransitions -= columnTransitionsBetween(y, y + pieceHeight+1);
+		
+		// each row of the piece is ORed in whole, spilling into the next word if it crosses one
+		long[] rowMasks = piece.getRowMasks();
+		int word = x >>> 6;
+		int shift = x & 63;
+		for (int i = 0; i < pieceHeight; i++) {
+			int index = slot(y+i)*rowWords + word;
+			long mask = rowMasks[i];
+			rows[index] |= mask << shift;
+			if (shift != 0 && (mask >>> (64 - shift)) != 0) rows[index+1] |= mask >>> (64 - shift);
+			
+			wArray[slot(y+i)] += Long.bitCount(mask);
+			if (wArray[slot(y+i)] == width) {
+				addFullRow(y+i);
+				result = PLACE_ROW_FILLED;
+			}
+		}
+		
+		hashRows(y, y + pieceHeight);
+		for (int i = 0; i < pieceHeight; i++) rowTransitions += rowTransitionsIn(y+i);
+		columnTransitions += columnTransitionsBetween(y, y + pieceHeight+1);
+		cellCount += cells;
+		if (y + pieceHeight > maxHeight) maxHeight = y + pieceHeight;
+		
+		// a column with no holes may have had its solid run extended by the piece
+		for (int col = x; col < x + pieceWidth; col++) {
+			int base = baseArray[col];
+			if (base == journal[heightsAt + col - x]) {
+				while (base < height && ((rows[slot(base)*rowWords + (col >>> 6)] >>> col) & 1L) != 0) base++;
+				baseArray[col] = base;
+			}
+		}
+		heightFeaturesOf(x, pieceWidth, 1);
+		
+		journal[journalSize++] = x;
+		journal[journalSize++] = pieceWidth;
+		journal[journalSize++] = cells;
+		journal[journalSize++] = RECORD_PLACE;
+		
 		sanityCheck();
 		return result;
 	}
 	
 	/* Method: resetHeightArray
 	 * ------------------------
-	 * Resets the values of the height arrays by starting at the top of each 
-	 * column and iterating down until a true is found.
+	 * Resets the values of the height arrays by sweeping the rows from the top
+	 * of the stack down with RowOps.columnHeights(). For each word of the row,
+	 * the bits not yet seen above are the tops of their columns, so every row
+	 * costs one operation per word plus one per column top found. The current
+	 * maxHeight is used as the starting row and is lowered to the tallest
+	 * column found.
 	 */
 	private void resetHeightArray() {
-		for (int curCol = 0; curCol < width; curCol++) {
-			int colHeight = height-1;
-			while(colHeight >= 0 && !grid[curCol][colHeight]) colHeight--;
-			hArray[curCol] = colHeight+1;
-		}
+		Arrays.fill(hArray, 0);
+		maxHeight = ROW_OPS.columnHeights(rows, rowWords, height, rowStart, maxHeight, hArray);
 	}
 	
-	/* Method: shiftRow
+	/* Method: getFullRowCount
+	 * -------------------------
+	 * Returns the number of rows that are filled all the way across, i.e.
+	 * the number of rows the next clearRows() will clear. O(1).
+	 */
+	public int getFullRowCount() {
+		return fullCount;
+	}
+	
+	/* Method: addFullRow
+	 * ------------------
+	 * Adds a row that has just become full to fullRows.
+	 */
+	private void addFullRow(int y) {
+		if (fullCount == fullRows.length) fullRows = Arrays.copyOf(fullRows, fullCount * 2);
+		fullRows[fullCount++] = y;
+	}
+	
+	/* Method: removeFullRow
+	 * ---------------------
+	 * Removes a row that is no longer full from fullRows.
+	 */
+	private void removeFullRow(int y) {
+		int i = 0;
+		while (fullRows[i] != y) i++;
+		fullRows[i] = fullRows[--fullCount];
+	}
+	
+	/* Method: moveRow
+	 * ---------------
+	 * Copies row from over row to.
+	 */
+	private void moveRow(int from, int to) {
+		System.arraycopy(rows, slot(from)*rowWords, rows, slot(to)*rowWords, rowWords);
+		wArray[slot(to)] = wArray[slot(from)];
+	}
+	
+	/* Method: emptyRow
 	 * ----------------
-	 * Shifts a row down based on the number of rows that have been cleared beneath.
+	 * Clears every block of the given row.
 	 */
-	private void shiftRow(int rowNum, int rowsCleared) {
-		for (int colNum = 0; colNum < width; colNum++) {
-			grid[colNum][rowNum-rowsCleared] = grid[colNum][rowNum];
-			grid[colNum][rowNum] = false;
-		}
-		wArray[rowNum-rowsCleared] = wArray[rowNum];
-		wArray[rowNum] = 0;
+	private void emptyRow(int y) {
+		Arrays.fill(rows, slot(y)*rowWords, (slot(y)+1)*rowWords, 0L);
+		wArray[slot(y)] = 0;
+	}
+	
+	/* Method: fillRow
+	 * ---------------
+	 * Fills every block of the given row.
+	 */
+	private void fillRow(int y) {
+		int base = slot(y)*rowWords;
+		Arrays.fill(rows, base, base + rowWords, -1L);
+		rows[base + rowWords-1] = lastWordMask;
+		wArray[slot(y)] = width;
+	}
+	
+	/* Method: moveBelow
+	 * -----------------
+	 * Given the first and last of the rows cleared, and the top of the stack,
+	 * returns true if fewer rows sit below the last cleared row than above the
+	 * first one. Closing the gap by moving the lower rows up and then turning
+	 * the circular buffer moves fewer rows in that case.
+	 */
+	private static boolean moveBelow(int firstCleared, int lastCleared, int top) {
+		return lastCleared+1 < top - firstCleared;
 	}
 
 	/* Method: clearRows
@@ -293,46 +1209,311 @@ public class Board	{
 	 */
 	public int clearRows() {
 		int rowsCleared = 0;
-		if (committed) updateBackups();
 		committed = false;
+		
+		// if no row is full, nothing changes and nothing is journaled
+		if (fullCount == 0) {
+			sanityCheck();
+			return 0;
+		}
+		
+		// the clear record is [state] [old column heights] [old column bases] [index of each cleared row] [rows cleared, RECORD_CLEAR]
+		// the cleared rows were full, so they need not be saved to be put back
+		ensureJournal(STATE_INTS + 2*width + fullCount + 2);
+		pushState();
+		System.arraycopy(hArray, 0, journal, journalSize, width);
+		journalSize += width;
+		System.arraycopy(baseArray, 0, journal, journalSize, width);
+		journalSize += width;
+		int clearedAt = journalSize;
+		int oldMaxHeight = maxHeight;
+		
+		// the full rows go on the journal in order, lowest first - there are few, so an insertion sort does
+		for (int i = 0; i < fullCount; i++) {
+			int y = fullRows[i];
+			int at = journalSize++;
+			while (at > clearedAt && journal[at-1] > y) {
+				journal[at] = journal[at-1];
+				at--;
+			}
+			journal[at] = y;
+		}
+		rowsCleared = fullCount;
+		fullCount = 0;
+		int firstFull = journal[clearedAt];
+		int lastFull = journal[journalSize-1];
+		
+		// the rows from firstFull up change, so their hash and column transitions are taken out ...
+		hashRows(firstFull, oldMaxHeight);
+		columnTransitions -= columnTransitionsBetween(firstFull, oldMaxHeight+1);
 
-		// iterates through the rows shifting each row down based on how many rows have been cleared
-		for(int rowNum = 0; rowNum < getMaxHeight(); rowNum++) {
-			if(wArray[rowNum] == width) {
-				wArray[rowNum] = 0;
-				shiftRow(rowNum, 0);
-				rowsCleared++;
-			} else if (rowsCleared > 0) {
-				shiftRow(rowNum, rowsCleared);
+		if (moveBelow(firstFull, lastFull, oldMaxHeight)) {
+			// move each row under the last full row up by the full rows above it; the bottom
+			// rowsCleared rows are then unused and become the (empty) top of the buffer
+			int to = lastFull;
+			int next = journalSize-1;
+			for (int from = lastFull; from >= 0; from--) {
+				if (next >= clearedAt && journal[next] == from) next--;
+				else moveRow(from, to--);
 			}
+			for (int y = 0; y < rowsCleared; y++) emptyRow(y);
+			rowStart = slot(rowsCleared);
+		} else {
+			// move each row over the first full row down by the full rows below it
+			int to = firstFull;
+			int next = clearedAt;
+			for (int from = firstFull; from < oldMaxHeight; from++) {
+				if (next < journalSize && journal[next] == from) next++;
+				else moveRow(from, to++);
+			}
+			for (int y = to; y < oldMaxHeight; y++) emptyRow(y);
 		}
 		
-		// the maxHeight must always be decreased by the number of cleared rows
-		maxHeight -= rowsCleared;
-		// reset hArray - this could have been done more efficiently above but I chose to do it outside the shift row loops to improve readability
-		resetHeightArray();
+		// ... and put back in once they have been shifted
+		hashRows(firstFull, oldMaxHeight - rowsCleared);
+		columnTransitions += columnTransitionsBetween(firstFull, oldMaxHeight - rowsCleared + 1);
+		
+		journal[journalSize++] = rowsCleared;
+		journal[journalSize++] = RECORD_CLEAR;
+		
+		// every cleared row held one block of each column, so each column comes down by the
+		// cleared rows under its top, and its solid run at the bottom loses the cleared rows
+		// inside it (a row holding a hole is never full). Full rows have no row transitions,
+		// so those are unchanged.
+		cellCount -= rowsCleared * width;
+		maxHeight = 0;
+		for (int col = 0; col < width; col++) {
+			fArray[col] -= rowsCleared;
+			int below = 0;
+			while (below < rowsCleared && journal[clearedAt + below] < baseArray[col]) below++;
+			baseArray[col] -= below;
+			hArray[col] = clearedColumnHeight(col, clearedAt, rowsCleared);
+			if (hArray[col] > maxHeight) maxHeight = hArray[col];
+		}
+		aggregateHeight = 0;
+		coveredCells = 0;
+		bumpiness = 0;
+		wells = 0;
+		heightFeaturesOf(0, width, 1);
 		
 		sanityCheck();
 		return rowsCleared;
 	}
 
-	/* Method: revertToBackups
-	 * -----------------------
-	 * Revert the current board data structures to the backup states.
-	 */ 
-	private void revertToBackups() {
-		maxHeight = maxHeightBackup;
+	/* Method: addGarbage
+	 * ------------------
+	 * Pushes count garbage rows in from the bottom, moving the rest of the grid
+	 * up. Each garbage row is full except for a hole at holeX. Returns PLACE_OK,
+	 * or PLACE_OUT_BOUNDS without changing the board if holeX is not a column
+	 * or the stack would be pushed out of the top of the board.
+	 * Like clearRows(), this can be backed out with undo().
+	 *
+	 * Implementation: the circular buffer is turned so that the empty rows at the
+	 * top become the new bottom rows, so only the garbage rows are written.
+	 */
+	public int addGarbage(int count, int holeX) {
+		if (holeX < 0 || holeX >= width || count < 0 || maxHeight + count > height) return PLACE_OUT_BOUNDS;
+		if (count == 0) return PLACE_OK;
+		committed = false;
 		
-		System.arraycopy(wArrayBackup, 0, wArray, 0, height);
-		System.arraycopy(hArrayBackup, 0, hArray, 0, width);
+		// the garbage record is [state] [old column heights] [old column bases] [count, holeX, RECORD_GARBAGE]
+		ensureJournal(STATE_INTS + 2*width + 3);
+		pushState();
+		System.arraycopy(hArray, 0, journal, journalSize, width);
+		journalSize += width;
+		System.arraycopy(baseArray, 0, journal, journalSize, width);
+		journalSize += width;
 		
-		for(int curCol = 0; curCol < width; curCol++) {
-			System.arraycopy(gridBackup[curCol], 0, grid[curCol], 0, height);
+		// every row moves, so the whole stack is rehashed. The column transitions move
+		// up with their rows, except for the one at the floor, which the garbage goes
+		// under, and those of the top rows, which are pushed out of the board
+		hashRows(0, maxHeight);
+		columnTransitions -= columnTransitionsAt(0) + columnTransitionsBetween(Math.max(height - count, 1), height);
+		
+		rowStart = slot(height - count);
+		for (int y = 0; y < count; y++) {
+			fillRow(y);
+			rows[slot(y)*rowWords + (holeX >>> 6)] &= ~(1L << holeX);
+			wArray[slot(y)]--;
+		}
+		
+		hashRows(0, maxHeight + count);
+		columnTransitions += columnTransitionsBetween(0, count+1);
+		for (int i = 0; i < fullCount; i++) fullRows[i] += count;
+		rowTransitions += count * rowTransitionsIn(0);
+		cellCount += count * (width-1);
+		
+		// the hole column only grows if it held blocks, which now sit over the garbage holes
+		int max = 0;
+		for (int col = 0; col < width; col++) {
+			if (col != holeX) {
+				fArray[col] += count;
+				baseArray[col] += count;
+				hArray[col] += count;
+			} else if (hArray[col] > 0) {
+				baseArray[col] = 0;
+				hArray[col] += count;
+			}
+			if (hArray[col] > max) max = hArray[col];
 		}
+		maxHeight = max;
+		aggregateHeight = 0;
+		coveredCells = 0;
+		bumpiness = 0;
+		wells = 0;
+		heightFeaturesOf(0, width, 1);
+		
+		journal[journalSize++] = count;
+		journal[journalSize++] = holeX;
+		journal[journalSize++] = RECORD_GARBAGE;
+		
+		sanityCheck();
+		return PLACE_OK;
 	}
 
-	/* Method: revertToBackups
-	 * -----------------------
+	/* Method: clearedColumnHeight
+	 * ---------------------------
+	 * Returns the height of the given column once the rows on the journal from
+	 * clearedAt (rowsCleared of them, lowest first) have been cleared and the
+	 * grid shifted. hArray still holds the old height. The column comes down by
+	 * the cleared rows under its top; only if its top block was in a cleared row
+	 * is the (already shifted) column searched for its new top, which can be no
+	 * lower than the top of its solid run at the bottom.
+	 */
+	private int clearedColumnHeight(int col, int clearedAt, int rowsCleared) {
+		int oldHeight = hArray[col];
+		int below = 0;
+		while (below < rowsCleared && journal[clearedAt + below] < oldHeight) below++;
+		int newHeight = oldHeight - below;
+		if (below == 0 || journal[clearedAt + below-1] != oldHeight-1) return newHeight;
+		
+		int word = col >>> 6;
+		while (newHeight > baseArray[col] && ((rows[slot(newHeight-1)*rowWords + word] >>> col) & 1L) == 0) newHeight--;
+		return newHeight;
+	}
+
+	/* Method: revertPlace
+	 * ---------------------
+	 * Pops a place record off the journal: removes the cells the piece filled
+	 * and restores the heights of the columns it covered.
+	 */
+	private void revertPlace() {
+		int cells = journal[--journalSize];
+		int pieceWidth = journal[--journalSize];
+		int x = journal[--journalSize];
+		
+		journalSize -= 2*cells;
+		for (int i = journalSize; i < journalSize + 2*cells; i += 2) {
+			int xCoord = journal[i];
+			int yCoord = journal[i+1];
+			rows[slot(yCoord)*rowWords + (xCoord >>> 6)] &= ~(1L << xCoord);
+			if (wArray[slot(yCoord)] == width) removeFullRow(yCoord);
+			wArray[slot(yCoord)]--;
+			fArray[xCoord]--;
+		}
+		
+		journalSize -= pieceWidth;
+		System.arraycopy(journal, journalSize, baseArray, x, pieceWidth);
+		journalSize -= pieceWidth;
+		System.arraycopy(journal, journalSize, hArray, x, pieceWidth);
+		popState();
+	}
+	
+	/* Method: revertClear
+	 * -------------------
+	 * Pops a clear record off the journal. Each cleared row is put back as a full
+	 * row and the surviving rows are moved back to where they were, on the same
+	 * side of the cleared rows that clearRows() moved.
+	 */
+	private void revertClear() {
+		int rowsCleared = journal[--journalSize];
+		journalSize -= rowsCleared;
+		int clearedAt = journalSize;
+		int firstFull = journal[clearedAt];
+		int lastFull = journal[clearedAt + rowsCleared-1];
+		
+		// clearRows() cleared every full row, so the cleared rows are exactly the rows that were full
+		fullCount = 0;
+		for (int i = clearedAt; i < clearedAt + rowsCleared; i++) addFullRow(journal[i]);
+		
+		// the old top of the stack is saved in the state at the bottom of the record
+		int oldMaxHeight = journal[journalSize - 2*width - STATE_INTS];
+		
+		if (moveBelow(firstFull, lastFull, oldMaxHeight)) {
+			// turn the buffer back, so the empty top rows are at the bottom again, then
+			// working up, put back each full row and move each surviving row down into place
+			rowStart = slot(height - rowsCleared);
+			int from = rowsCleared;
+			int next = clearedAt;
+			for (int rowNum = 0; rowNum <= lastFull; rowNum++) {
+				if (journal[next] == rowNum) {
+					fillRow(rowNum);
+					next++;
+				} else {
+					moveRow(from++, rowNum);
+				}
+			}
+		} else {
+			// working down from the old top, put back each full row and move each
+			// surviving row back up above the full rows that were below it
+			int next = clearedAt + rowsCleared-1;
+			for (int rowNum = oldMaxHeight-1; next >= clearedAt; rowNum--) {
+				if (journal[next] == rowNum) {
+					fillRow(rowNum);
+					next--;
+				} else {
+					moveRow(rowNum - (next - clearedAt + 1), rowNum);
+				}
+			}
+		}
+		
+		for (int col = 0; col < width; col++) fArray[col] += rowsCleared;
+		journalSize -= width;
+		System.arraycopy(journal, journalSize, baseArray, 0, width);
+		journalSize -= width;
+		System.arraycopy(journal, journalSize, hArray, 0, width);
+		popState();
+	}
+	
+	/* Method: revertGarbage
+	 * ---------------------
+	 * Pops a garbage record off the journal: empties the garbage rows and turns
+	 * the circular buffer back so that they are at the top again.
+	 */
+	private void revertGarbage() {
+		int holeX = journal[--journalSize];
+		int count = journal[--journalSize];
+		
+		for (int y = 0; y < count; y++) emptyRow(y);
+		rowStart = slot(count);
+		for (int i = 0; i < fullCount; i++) fullRows[i] -= count;
+		
+		for (int col = 0; col < width; col++) {
+			if (col != holeX) fArray[col] -= count;
+		}
+		journalSize -= width;
+		System.arraycopy(journal, journalSize, baseArray, 0, width);
+		journalSize -= width;
+		System.arraycopy(journal, journalSize, hArray, 0, width);
+		popState();
+	}
+	
+	/* Method: revertTo
+	 * ----------------
+	 * Pops journal records, newest first, until the journal is back
+	 * to the given size.
+	 */
+	private void revertTo(int size) {
+		while (journalSize > size) {
+			int type = journal[--journalSize];
+			if (type == RECORD_PLACE) revertPlace();
+			else if (type == RECORD_CLEAR) revertClear();
+			else revertGarbage();
+		}
+	}
+
+	/* Method: undo
+	 * ------------
 	 * Reverts the board to its state before up to one place
 	 * and one clearRows();
 	 * If the conditions for undo() are not met, such as
@@ -341,17 +1522,65 @@ public class Board	{
 	public void undo() {
 		if (!committed) {
 			committed = true;
-			revertToBackups();
+			revertTo(barrier);
 			sanityCheck();
 		}
 	}
 	
 	/* Method: commit
 	 * --------------
-	 * Puts the board in the committed state.
+	 * Puts the board in the committed state. With no savepoints open
+	 * the journal is no longer needed and is emptied.
 	 */
 	public void commit() {
-		committed = true;	
+		committed = true;
+		if (markCount == 0) journalSize = 0;
+		barrier = journalSize;
+	}
+	
+	/* Method: mark
+	 * ------------
+	 * Opens a savepoint and returns a token for it. Like commit(), this
+	 * puts the board in the committed state so the next piece can be placed,
+	 * but the changes made so far stay in the journal, so the board can
+	 * later be rolled back to this point with rollback(token).
+	 *
+	 * Savepoints nest: a search can mark, place and clear one piece, mark again,
+	 * place and clear the next, and so on, then roll back to any earlier level.
+	 * Rolling back costs only as much as the changes made since the mark.
+	 */
+	public int mark() {
+		if (markCount == marks.length) marks = Arrays.copyOf(marks, markCount * 2);
+		committed = true;
+		barrier = journalSize;
+		marks[markCount] = journalSize;
+		return markCount++;
+	}
+	
+	/* Method: rollback
+	 * ----------------
+	 * Reverts the board to its state when the given savepoint was opened,
+	 * and leaves the board committed. The savepoint stays open, so the caller
+	 * can try something else and roll back to it again; savepoints opened
+	 * after it are closed.
+	 */
+	public void rollback(int token) {
+		if (token < 0 || token >= markCount) throw new RuntimeException("rollback to a savepoint that is not open");
+		revertTo(marks[token]);
+		markCount = token + 1;
+		committed = true;
+		barrier = journalSize;
+		sanityCheck();
+	}
+	
+	/* Method: release
+	 * ---------------
+	 * Closes the given savepoint, and any opened after it, keeping the board
+	 * as it is. Once no savepoints are open, commit() empties the journal again.
+	 */
+	public void release(int token) {
+		if (token < 0 || token >= markCount) throw new RuntimeException("release of a savepoint that is not open");
+		markCount = token;
 	}
 
 	/* Method: toString
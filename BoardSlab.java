@@ -0,0 +1,119 @@
+/* Class: BoardSlab.java
+ * ---------------------
+ * A fixed-size region of off-heap memory divided into equal slots, one per
+ * OffHeapBoard. Every board in a slab has the same width and height. Slots
+ * are handed out by allocate() and recycled by release(), so hosting a large
+ * number of headless games costs a few hundred bytes each outside the Java
+ * heap, and the game state itself never has to be garbage collected.
+ *
+ * allocate() and release() may be called from any thread. Each board should
+ * only be used by one thread at a time, but different boards in the same
+ * slab may be used by different threads at once.
+ *
+ * One slab holds at most Integer.MAX_VALUE bytes; use several slabs
+ * for more games than that.
+ */
+package tetris;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class BoardSlab {
+	private final int width;
+	private final int height;
+	private final int slotBytes;
+	private final int capacity;
+	private final ByteBuffer memory;
+
+	// Stack of the free slot indexes; freeCount of them are in use
+	private final int[] free;
+	private int freeCount;
+
+	/* Constructor: BoardSlab
+	 * ----------------------
+	 * Creates a slab with room for capacity boards of the given width and
+	 * height. Boards are limited to 64 columns and 255 rows.
+	 */
+	public BoardSlab(int width, int height, int capacity) {
+		if (width < 1 || width > 64 || height < 1 || height > 255) throw new RuntimeException("Board size not supported off-heap");
+		this.width = width;
+		this.height = height;
+		this.slotBytes = OffHeapBoard.slotBytes(width, height);
+		if ((long)slotBytes * capacity > Integer.MAX_VALUE) throw new RuntimeException("Slab too large");
+		this.capacity = capacity;
+
+		memory = ByteBuffer.allocateDirect(slotBytes * capacity).order(ByteOrder.nativeOrder());
+		free = new int[capacity];
+		for (int i = 0; i < capacity; i++) free[i] = capacity-1 - i;
+		freeCount = capacity;
+	}
+
+	/* Method: getWidth
+	 * ----------------
+	 * Returns the width of the boards in this slab.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/* Method: getHeight
+	 * -----------------
+	 * Returns the height of the boards in this slab.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/* Method: getSlotBytes
+	 * --------------------
+	 * Returns the number of off-heap bytes each board takes.
+	 */
+	public int getSlotBytes() {
+		return slotBytes;
+	}
+
+	/* Method: getCapacity
+	 * -------------------
+	 * Returns the number of boards the slab can hold.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/* Method: getAllocated
+	 * --------------------
+	 * Returns the number of boards currently allocated.
+	 */
+	public synchronized int getAllocated() {
+		return capacity - freeCount;
+	}
+
+	/* Method: allocate
+	 * ----------------
+	 * Returns a new, empty and committed board in a free slot.
+	 * Throws a RuntimeException if the slab is full.
+	 */
+	public OffHeapBoard allocate() {
+		int slot;
+		synchronized (this) {
+			if (freeCount == 0) throw new RuntimeException("BoardSlab is full");
+			slot = free[--freeCount];
+		}
+		OffHeapBoard board = new OffHeapBoard(this, memory, slot * slotBytes);
+		board.clear();
+		return board;
+	}
+
+	/* Method: release
+	 * ---------------
+	 * Returns the board's slot to the slab for reuse. The board must not
+	 * be used afterwards.
+	 */
+	public void release(OffHeapBoard board) {
+		if (board.getSlab() != this) throw new RuntimeException("Board is not from this slab");
+		int slot = board.detach() / slotBytes;
+		synchronized (this) {
+			free[freeCount++] = slot;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/* Class: BoardSnapshot.java
+ * -------------------------
+ * An immutable Tetris board. Placing a piece or clearing rows does not
+ * change the snapshot -- it returns a new snapshot that shares every
+ * unchanged part of the grid with its parent. That makes branching
+ * (trying many moves from the same position) cheap, and since nothing
+ * is ever modified after construction, snapshots can be shared freely
+ * between threads.
+ *
+ * The grid uses the same row bit masks as Board, grouped into chunks of
+ * CHUNK_ROWS rows. A new snapshot copies the small array of chunk pointers
+ * and only the chunks holding rows that actually changed.
+ */
+package tetris;
+
+public final class BoardSnapshot {
+	// Number of rows stored together in one chunk
+	private static final int CHUNK_ROWS = 8;
+
+	private final int width;
+	private final int height;
+	private final int rowWords;
+	private final int maxHeight;
+
+	// chunks[c] holds rows c*CHUNK_ROWS up to (c+1)*CHUNK_ROWS-1, rowWords longs per row
+	private final long[][] chunks;
+	private final int[] heights;
+
+	/* Constructor: BoardSnapshot
+	 * --------------------------
+	 * Wraps already computed state. The arrays are owned by the new snapshot
+	 * and must never be modified afterwards.
+	 */
+	private BoardSnapshot(int width, int height, long[][] chunks, int[] heights, int maxHeight) {
+		this.width = width;
+		this.height = height;
+		this.rowWords = (width + 63) >>> 6;
+		this.chunks = chunks;
+		this.heights = heights;
+		this.maxHeight = maxHeight;
+	}
+
+	/* Method: empty
+	 * -------------
+	 * Returns an empty snapshot of the given width and height. All its
+	 * chunks share one empty chunk.
+	 */
+	public static BoardSnapshot empty(int width, int height) {
+		int rowWords = (width + 63) >>> 6;
+		long[] emptyChunk = new long[CHUNK_ROWS * rowWords];
+		long[][] chunks = new long[(height + CHUNK_ROWS-1) / CHUNK_ROWS][];
+		for (int c = 0; c < chunks.length; c++) chunks[c] = emptyChunk;
+
+		return new BoardSnapshot(width, height, chunks, new int[width], 0);
+	}
+
+	/* Method: of
+	 * ----------
+	 * Returns a snapshot of the current contents of the given board.
+	 */
+	public static BoardSnapshot of(Board board) {
+		int width = board.getWidth();
+		int height = board.getHeight();
+		int rowWords = (width + 63) >>> 6;
+
+		long[][] chunks = new long[(height + CHUNK_ROWS-1) / CHUNK_ROWS][];
+		for (int c = 0; c < chunks.length; c++) {
+			long[] chunk = new long[CHUNK_ROWS * rowWords];
+			for (int r = 0; r < CHUNK_ROWS && c*CHUNK_ROWS + r < height; r++) {
+				for (int word = 0; word < rowWords; word++) {
+					chunk[r*rowWords + word] = board.getRowWord(c*CHUNK_ROWS + r, word);
+				}
+			}
+			chunks[c] = chunk;
+		}
+
+		int[] heights = new int[width];
+		for (int x = 0; x < width; x++) heights[x] = board.getColumnHeight(x);
+
+		return new BoardSnapshot(width, height, chunks, heights, board.getMaxHeight());
+	}
+
+	/* Method: toBoard
+	 * ---------------
+	 * Returns a new, committed Board with the same contents as this snapshot.
+	 */
+	public Board toBoard() {
+		Board board = new Board(width, height);
+		board.loadRows(this);
+		return board;
+	}
+
+	/* Method: getWidth
+	 * ----------------
+	 * Returns the width of the board in blocks.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/* Method: getHeight
+	 * -----------------
+	 * Returns the height of the board in blocks.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/* Method: getMaxHeight
+	 * --------------------
+	 * Returns the max column height present in the board.
+	 * For an empty board this is 0.
+	 */
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	/* Method: getColumnHeight
+	 * -----------------------
+	 * Returns the height of the given column --
+	 * i.e. the y value of the highest block + 1.
+	 */
+	public int getColumnHeight(int x) {
+		return heights[x];
+	}
+
+	/* Method: getRowWidth
+	 * -------------------
+	 * Returns the number of filled blocks in the given row.
+	 */
+	public int getRowWidth(int y) {
+		long[] chunk = chunks[y / CHUNK_ROWS];
+		int base = (y % CHUNK_ROWS) * rowWords;
+		int count = 0;
+		for (int word = 0; word < rowWords; word++) count += Long.bitCount(chunk[base + word]);
+		return count;
+	}
+
+	/* Method: getGrid
+	 * ---------------
+	 * Returns true if the given block is filled in the board.
+	 * Blocks outside of the valid width/height area
+	 * always return true, as for Board.
+	 */
+	public boolean getGrid(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return true;
+		return ((getRowWord(y, x >>> 6) >>> x) & 1L) != 0;
+	}
+
+	/* Method: getRowWord
+	 * ------------------
+	 * Returns one word of the bit mask for the given row.
+	 */
+	long getRowWord(int y, int word) {
+		return chunks[y / CHUNK_ROWS][(y % CHUNK_ROWS)*rowWords + word];
+	}
+
+	/* Method: dropHeight
+	 * ------------------
+	 * Given a piece and an x value, returns the y value where the piece
+	 * would come to rest if it were dropped straight down at that x.
+	 */
+	public int dropHeight(Piece piece, int x) {
+		if (x < 0 || x >= width) throw new RuntimeException("Cannot drop piece out of bounds");
+
+		int firstStop = 0;
+		int[] skirt = piece.getSkirt();
+		for (int i = 0; i < piece.getWidth(); i++) {
+			int stop = heights[x+i] - skirt[i];
+			if (stop > firstStop) firstStop = stop;
+		}
+		return firstStop;
+	}
+
+	/* Method: place
+	 * -------------
+	 * Returns a new snapshot with the piece added at the given position, or
+	 * null if Board.place() would not accept the placement (the piece is out
+	 * of bounds or below its drop height). Only the chunks holding the
+	 * piece's rows are copied; the rest are shared with this snapshot.
+	 */
+	public BoardSnapshot place(Piece piece, int x, int y) {
+		if (x < 0 || x + piece.getWidth() > width || y < 0 || y + piece.getHeight() > height) return null;
+		if (y < dropHeight(piece, x)) return null;
+
+		long[][] newChunks = chunks.clone();
+		int firstChunk = y / CHUNK_ROWS;
+		int lastChunk = (y + piece.getHeight()-1) / CHUNK_ROWS;
+		for (int c = firstChunk; c <= lastChunk; c++) newChunks[c] = chunks[c].clone();
+
+		int[] newHeights = heights.clone();
+		int newMaxHeight = maxHeight;
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		for (int i = 0; i < bodyX.length; i++) {
+			int xCoord = x + bodyX[i];
+			int yCoord = y + bodyY[i];
+			newChunks[yCoord / CHUNK_ROWS][(yCoord % CHUNK_ROWS)*rowWords + (xCoord >>> 6)] |= 1L << xCoord;
+			if (yCoord+1 > newHeights[xCoord]) newHeights[xCoord] = yCoord+1;
+			if (yCoord+1 > newMaxHeight) newMaxHeight = yCoord+1;
+		}
+
+		return new BoardSnapshot(width, height, newChunks, newHeights, newMaxHeight);
+	}
+
+	/* Method: clearRows
+	 * -----------------
+	 * Returns a snapshot with the full rows deleted and the rows above moved
+	 * down, or this snapshot if no row is full. Chunks entirely below the
+	 * lowest full row are shared with this snapshot.
+	 */
+	public BoardSnapshot clearRows() {
+		int firstFull = 0;
+		while (firstFull < maxHeight && getRowWidth(firstFull) != width) firstFull++;
+		if (firstFull == maxHeight) return this;
+
+		long[][] newChunks = chunks.clone();
+		int firstChunk = firstFull / CHUNK_ROWS;
+		int lastChunk = (maxHeight-1) / CHUNK_ROWS;
+		for (int c = firstChunk; c <= lastChunk; c++) newChunks[c] = new long[CHUNK_ROWS * rowWords];
+
+		// copy the rows of the first rebuilt chunk that are below the first full row
+		int keep = (firstFull % CHUNK_ROWS) * rowWords;
+		System.arraycopy(chunks[firstChunk], 0, newChunks[firstChunk], 0, keep);
+
+		int to = firstFull;
+		for (int from = firstFull; from < maxHeight; from++) {
+			if (getRowWidth(from) == width) continue;
+			long[] src = chunks[from / CHUNK_ROWS];
+			long[] dst = newChunks[to / CHUNK_ROWS];
+			System.arraycopy(src, (from % CHUNK_ROWS)*rowWords, dst, (to % CHUNK_ROWS)*rowWords, rowWords);
+			to++;
+		}
+
+		// recompute the column heights from the top of the new stack down
+		int[] newHeights = new int[width];
+		int newMaxHeight = 0;
+		for (int word = 0; word < rowWords; word++) {
+			long seen = 0;
+			for (int y = to-1; y >= 0; y--) {
+				long tops = newChunks[y / CHUNK_ROWS][(y % CHUNK_ROWS)*rowWords + word] & ~seen;
+				if (tops == 0) continue;
+				seen |= tops;
+				if (y+1 > newMaxHeight) newMaxHeight = y+1;
+				while (tops != 0) {
+					newHeights[(word << 6) + Long.numberOfTrailingZeros(tops)] = y+1;
+					tops &= tops-1;
+				}
+			}
+		}
+
+		return new BoardSnapshot(width, height, newChunks, newHeights, newMaxHeight);
+	}
+
+	/* Method: toString
+	 * ----------------
+	 * Renders the board state as a big String, in the same format as Board.
+	 */
+	public String toString() {
+		StringBuilder buff = new StringBuilder();
+		for (int y = height-1; y>=0; y--) {
+			buff.append('|');
+			for (int x=0; x<width; x++) {
+				if (getGrid(x,y)) buff.append('+');
+				else buff.append(' ');
+			}
+			buff.append("|\n");
+		}
+		for (int x=0; x<width+2; x++) buff.append('-');
+		return(buff.toString());
+	}
+}
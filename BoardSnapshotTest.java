@@ -0,0 +1,79 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class BoardSnapshotTest {
+	private Piece pyr1, stick, stick2, square, lo1;
+	
+	@Before
+	public void setUp() throws Exception {
+		pyr1 = new Piece(Piece.PYRAMID_STR);
+		stick = new Piece(Piece.STICK_STR);
+		stick2 = stick.computeNextRotation();
+		square = new Piece(Piece.SQUARE_STR);
+		lo1 = new Piece(Piece.L1_STR);
+	}
+	
+	// Placing into a snapshot leaves the parent unchanged
+	@Test
+	public void testPlaceIsPersistent() {
+		BoardSnapshot empty = BoardSnapshot.empty(4, 20);
+		BoardSnapshot s1 = empty.place(lo1, 0, 0);
+		BoardSnapshot s2 = s1.place(square, 2, 0);
+		
+		assertEquals(0, empty.getMaxHeight());
+		assertEquals(false, empty.getGrid(0, 0));
+		assertEquals(3, s1.getMaxHeight());
+		assertEquals(0, s1.getColumnHeight(2));
+		assertEquals(2, s1.getRowWidth(0));
+		assertEquals(2, s2.getColumnHeight(3));
+		assertEquals(4, s2.getRowWidth(0));
+		
+		// below the drop height, or out of bounds, there is no new snapshot
+		assertNull(s2.place(pyr1, 0, 0));
+		assertNull(s2.place(stick2, 1, 5));
+	}
+	
+	// Clearing rows matches Board.clearRows()
+	@Test
+	public void testClearRows() {
+		Board board = new Board(4, 20);
+		BoardSnapshot snap = board.snapshot();
+		Piece[] moves = { lo1, square, stick, stick2 };
+		int[] xs = { 0, 2, 1, 0 };
+		for (int i = 0; i < moves.length; i++) {
+			int y = board.dropHeight(moves[i], xs[i]);
+			board.place(moves[i], xs[i], y);
+			board.clearRows();
+			board.commit();
+			snap = snap.place(moves[i], xs[i], y).clearRows();
+			
+			assertEquals(board.toString(), snap.toString());
+			assertEquals(board.getMaxHeight(), snap.getMaxHeight());
+			for (int x = 0; x < 4; x++) assertEquals(board.getColumnHeight(x), snap.getColumnHeight(x));
+		}
+		
+		BoardSnapshot same = snap.clearRows();
+		assertSame(snap, same);
+	}
+	
+	// Converting to a Board and back keeps the contents
+	@Test
+	public void testConversion() {
+		BoardSnapshot snap = BoardSnapshot.empty(70, 12).place(stick, 65, 0).place(pyr1, 62, 0);
+		Board board = snap.toBoard();
+		assertEquals(snap.toString(), board.toString());
+		assertEquals(4, board.getColumnHeight(65));
+		assertEquals(2, board.getColumnHeight(63));
+		assertEquals(4, board.getMaxHeight());
+		assertEquals(4, board.getRowWidth(0));
+		
+		assertEquals(Board.PLACE_OK, board.place(square, 0, 0));
+		assertEquals(snap.place(square, 0, 0).toString(), BoardSnapshot.of(board).toString());
+		board.undo();
+		assertEquals(snap.toString(), BoardSnapshot.of(board).toString());
+	}
+	
+}
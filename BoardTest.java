@@ -359,4 +359,429 @@ public class BoardTest {
 		assertEquals(10, b2.getHeight());
 	}
 	
+	// Test a board wider than one 64-bit row word
+	@Test
+	public void testWideBoard() {
+		Board b1 = new Board(70, 6);
+		Piece stick2 = stick.computeNextRotation();
+		
+		for (int x = 0; x < 64; x += 4) {
+			assertEquals(Board.PLACE_OK, b1.place(stick2, x, 0));
+			b1.commit();
+		}
+		assertEquals(Board.PLACE_OK, b1.place(square, 64, 0));
+		b1.commit();
+		assertEquals(Board.PLACE_OK, b1.place(pyr1, 66, 0));
+		b1.commit();
+		assertEquals(69, b1.getRowWidth(0));
+		assertEquals(2, b1.getColumnHeight(65));
+		assertEquals(true, b1.getGrid(63, 0));
+		assertEquals(true, b1.getGrid(64, 0));
+		assertEquals(false, b1.getGrid(66, 1));
+		assertEquals(false, b1.getGrid(69, 0));
+		
+		assertEquals(Board.PLACE_ROW_FILLED, b1.place(stick, 69, 0));
+		assertEquals(4, b1.getMaxHeight());
+		assertEquals(1, b1.clearRows());
+		assertEquals(3, b1.getMaxHeight());
+		assertEquals(0, b1.getColumnHeight(0));
+		assertEquals(0, b1.getColumnHeight(63));
+		assertEquals(1, b1.getColumnHeight(64));
+		assertEquals(0, b1.getColumnHeight(66));
+		assertEquals(1, b1.getColumnHeight(67));
+		assertEquals(3, b1.getColumnHeight(69));
+		assertEquals(4, b1.getRowWidth(0));
+		
+		b1.undo();
+		assertEquals(2, b1.getMaxHeight());
+		assertEquals(69, b1.getRowWidth(0));
+		assertEquals(false, b1.getGrid(69, 0));
+	}
+	
+	// Test that undo restores the exact grid after a place and a clear that shifts rows
+	@Test
+	public void testUndoRestoresGrid() {
+		Board b1 = new Board(4, 8);
+		assertEquals(Board.PLACE_OK, b1.place(lo1, 0, 0));
+		b1.commit();
+		assertEquals(Board.PLACE_OK, b1.place(stick, 3, 0));
+		b1.commit();
+		String before = b1.toString();
+		
+		assertEquals(Board.PLACE_ROW_FILLED, b1.place(stick, 2, 0));
+		assertEquals(1, b1.clearRows());
+		assertEquals(3, b1.getMaxHeight());
+		assertEquals(3, b1.getColumnHeight(3));
+		b1.undo();
+		assertEquals(before, b1.toString());
+		assertEquals(4, b1.getMaxHeight());
+		assertEquals(4, b1.getColumnHeight(3));
+		assertEquals(0, b1.getColumnHeight(2));
+		assertEquals(3, b1.getRowWidth(0));
+		
+		b1.undo();
+		assertEquals(before, b1.toString());
+		assertEquals(Board.PLACE_OK, b1.place(square, 0, 3));
+		b1.undo();
+		assertEquals(before, b1.toString());
+	}
+	
+	// Test nested savepoints across several places and clears
+	@Test
+	public void testSavepoints() {
+		Board b1 = new Board(4, 8);
+		String empty = b1.toString();
+		
+		int level0 = b1.mark();
+		assertEquals(Board.PLACE_OK, b1.place(lo1, 0, 0));
+		String afterL = b1.toString();
+		int level1 = b1.mark();
+		assertEquals(Board.PLACE_ROW_FILLED, b1.place(square, 2, 0));
+		assertEquals(1, b1.clearRows());
+		int level2 = b1.mark();
+		assertEquals(Board.PLACE_OK, b1.place(square, 2, 1));
+		assertEquals(3, b1.getMaxHeight());
+		
+		b1.rollback(level2);
+		assertEquals(2, b1.getMaxHeight());
+		assertEquals(3, b1.getRowWidth(0));
+		assertEquals(Board.PLACE_ROW_FILLED, b1.place(stick, 1, 0));
+		assertEquals(1, b1.clearRows());
+		assertEquals(3, b1.getMaxHeight());
+		
+		b1.rollback(level1);
+		assertEquals(afterL, b1.toString());
+		assertEquals(3, b1.getMaxHeight());
+		assertEquals(2, b1.getRowWidth(0));
+		assertEquals(0, b1.getColumnHeight(2));
+		
+		b1.commit();
+		b1.rollback(level0);
+		assertEquals(empty, b1.toString());
+		assertEquals(0, b1.getMaxHeight());
+		
+		b1.release(level0);
+		assertEquals(Board.PLACE_OK, b1.place(lo1, 0, 0));
+		b1.commit();
+		b1.undo();
+		assertEquals(afterL, b1.toString());
+	}
+	
+	// Test that the board hash tracks place, clearRows and undo
+	@Test
+	public void testHashAndEquals() {
+		Board b1 = new Board(4, 8);
+		Board b2 = new Board(4, 8);
+		assertEquals(0, b1.getZobristHash());
+		assertTrue(b1.equals(b2));
+		
+		b1.place(lo1, 0, 0);
+		b1.commit();
+		b1.place(stick, 3, 0);
+		b1.commit();
+		b2.place(stick, 3, 0);
+		b2.commit();
+		b2.place(lo1, 0, 0);
+		b2.commit();
+		assertEquals(b1.getZobristHash(), b2.getZobristHash());
+		assertEquals(b1.hashCode(), b2.hashCode());
+		assertTrue(b1.equals(b2));
+		
+		long before = b1.getZobristHash();
+		assertEquals(Board.PLACE_ROW_FILLED, b1.place(stick, 2, 0));
+		assertFalse(before == b1.getZobristHash());
+		assertFalse(b1.equals(b2));
+		assertEquals(1, b1.clearRows());
+		b1.undo();
+		assertEquals(before, b1.getZobristHash());
+		assertTrue(b1.equals(b2));
+		
+		// the incrementally kept hash matches one computed from scratch after a clear
+		b1.place(stick, 2, 0);
+		b1.clearRows();
+		b1.commit();
+		Board b3 = b1.snapshot().toBoard();
+		assertEquals(b1.getZobristHash(), b3.getZobristHash());
+		assertTrue(b3.equals(b1));
+		assertFalse(b3.equals(b2));
+	}
+	
+	// Check the board features against counts made by hand, and that undo restores them
+	@Test
+	public void testFeatures() {
+		// the pyramid from setUp
+		assertEquals(4, b.getAggregateHeight());
+		assertEquals(0, b.getHoles());
+		assertEquals(2, b.getBumpiness());
+		assertEquals(2, b.getWells());
+		assertEquals(4, b.getRowTransitions());
+		assertEquals(3, b.getColumnTransitions());
+		
+		// a flat stick on a square leaves two holes under each of columns 2 and 3
+		Board holes = new Board(4, 6);
+		holes.place(square, 0, 0);
+		holes.commit();
+		holes.place(stick.computeNextRotation(), 0, 2);
+		holes.commit();
+		assertEquals(4, holes.getHoles());
+		assertEquals(0, holes.getColumnHoles(0));
+		assertEquals(2, holes.getColumnHoles(2));
+		assertEquals(1, holes.getColumnCoveredCells(2));
+		assertEquals(2, holes.getCoveredCells());
+		assertEquals(12, holes.getAggregateHeight());
+		assertEquals(0, holes.getBumpiness());
+		assertEquals(0, holes.getWells());
+		assertEquals(4, holes.getRowTransitions());
+		assertEquals(8, holes.getColumnTransitions());
+		
+		int[] before = new int[Board.FEATURE_COUNT];
+		holes.getFeatures(before);
+		assertEquals(4, before[Board.FEATURE_HOLES]);
+		assertEquals(3, before[Board.FEATURE_MAX_HEIGHT]);
+		
+		// clearing both flat sticks uncovers the holes, and undoing gives back the same features
+		assertEquals(Board.PLACE_ROW_FILLED, holes.place(stick.computeNextRotation(), 0, 3));
+		assertEquals(2, holes.clearRows());
+		assertEquals(0, holes.getHoles());
+		assertEquals(0, holes.getCoveredCells());
+		assertEquals(4, holes.getAggregateHeight());
+		assertEquals(2, holes.getBumpiness());
+		holes.undo();
+		int[] after = new int[Board.FEATURE_COUNT];
+		holes.getFeatures(after);
+		assertArrayEquals(before, after);
+	}
+	
+	// Check evaluatePlacements() against placing the piece, without changing the board
+	@Test
+	public void testEvaluatePlacements() {
+		Board board = new Board(4, 6);
+		board.place(square, 0, 0);
+		board.commit();
+		
+		int[] out = new int[Board.EVAL_STRIDE * 4 * board.getWidth()];
+		assertEquals(3, board.evaluatePlacements(square, 6, out));
+		
+		// on top of the square
+		assertEquals(0, out[Board.EVAL_X]);
+		assertEquals(2, out[Board.EVAL_Y]);
+		assertEquals(0, out[Board.EVAL_ROWS_CLEARED]);
+		assertEquals(4, out[Board.EVAL_MAX_HEIGHT]);
+		assertEquals(4, out[Board.EVAL_HEIGHT_DELTA]);
+		assertEquals(0, out[Board.EVAL_HOLES_DELTA]);
+		
+		// half on the square, leaving two holes in column 2
+		int base = Board.EVAL_STRIDE;
+		assertEquals(1, out[base + Board.EVAL_X]);
+		assertEquals(2, out[base + Board.EVAL_Y]);
+		assertEquals(6, out[base + Board.EVAL_HEIGHT_DELTA]);
+		assertEquals(2, out[base + Board.EVAL_HOLES_DELTA]);
+		
+		// next to the square, clearing both rows
+		base = 2 * Board.EVAL_STRIDE;
+		assertEquals(2, out[base + Board.EVAL_X]);
+		assertEquals(0, out[base + Board.EVAL_Y]);
+		assertEquals(2, out[base + Board.EVAL_ROWS_CLEARED]);
+		assertEquals(0, out[base + Board.EVAL_MAX_HEIGHT]);
+		assertEquals(-4, out[base + Board.EVAL_HEIGHT_DELTA]);
+		assertEquals(0, out[base + Board.EVAL_HOLES_DELTA]);
+		assertEquals(8, out[base + Board.EVAL_ERODED]);
+		
+		// a limit height of 3 leaves only the placement on the floor
+		assertEquals(1, board.evaluatePlacements(square, 3, out));
+		assertEquals(2, out[Board.EVAL_X]);
+		
+		// the board did not change
+		assertEquals(2, board.getMaxHeight());
+		assertEquals(4, board.getAggregateHeight());
+		assertEquals(2, board.getRowWidth(0));
+	}
+	
+	// Push garbage rows in from the bottom, clear around them, and undo
+	@Test
+	public void testGarbage() {
+		// |   |
+		// | + |
+		// |+++|
+		b.commit();
+		assertEquals(Board.PLACE_OK, b.addGarbage(2, 1));
+		assertEquals(4, b.getMaxHeight());
+		assertEquals(2, b.getRowWidth(0));
+		assertEquals(2, b.getRowWidth(1));
+		assertEquals(3, b.getRowWidth(2));
+		assertEquals(1, b.getRowWidth(3));
+		assertFalse(b.getGrid(1, 0));
+		assertTrue(b.getGrid(1, 2));
+		assertEquals(3, b.getColumnHeight(0));
+		assertEquals(4, b.getColumnHeight(1));
+		assertEquals(2, b.getHoles());
+		
+		// the old bottom row is still full, and clearing it brings the pyramid's top down
+		assertEquals(1, b.clearRows());
+		assertEquals(3, b.getMaxHeight());
+		assertEquals(1, b.getRowWidth(2));
+		assertTrue(b.getGrid(1, 2));
+		assertFalse(b.getGrid(1, 1));
+		
+		b.undo();
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(3, b.getRowWidth(0));
+		assertEquals(1, b.getRowWidth(1));
+		assertEquals(0, b.getHoles());
+		
+		// garbage that would push the stack out of the board is refused
+		assertEquals(Board.PLACE_OUT_BOUNDS, b.addGarbage(5, 0));
+		assertEquals(Board.PLACE_OUT_BOUNDS, b.addGarbage(1, 3));
+		assertEquals(2, b.getMaxHeight());
+	}
+	
+	// Clear full rows under a tall stack, and under a short one, and undo both
+	@Test
+	public void testClearRowsLowAndHigh() {
+		// a square fills the two bottom rows, with a stick standing on it
+		Board board = new Board(2, 12);
+		board.place(square, 0, 0);
+		board.commit();
+		board.place(stick, 0, 2);
+		board.commit();
+		String before = board.toString();
+		
+		assertEquals(2, board.clearRows());
+		assertEquals(4, board.getMaxHeight());
+		assertEquals(4, board.getColumnHeight(0));
+		assertEquals(0, board.getColumnHeight(1));
+		assertEquals(1, board.getRowWidth(0));
+		assertEquals(0, board.getRowWidth(4));
+		board.undo();
+		assertEquals(before, board.toString());
+		assertEquals(6, board.getMaxHeight());
+		
+		// three garbage rows under the square leave the full rows above most of the stack
+		board = new Board(2, 12);
+		board.place(square, 0, 0);
+		board.commit();
+		board.addGarbage(3, 0);
+		board.commit();
+		before = board.toString();
+		
+		assertEquals(2, board.clearRows());
+		assertEquals(3, board.getMaxHeight());
+		assertEquals(0, board.getColumnHeight(0));
+		assertEquals(1, board.getRowWidth(2));
+		board.undo();
+		assertEquals(before, board.toString());
+		assertEquals(5, board.getMaxHeight());
+	}
+	
+	// Check the count of full rows through place, clearRows, addGarbage and undo
+	@Test
+	public void testFullRowCount() {
+		// the pyramid from setUp filled the bottom row
+		assertEquals(1, b.getFullRowCount());
+		
+		Board board = new Board(2, 6);
+		assertEquals(Board.PLACE_ROW_FILLED, board.place(square, 0, 0));
+		assertEquals(2, board.getFullRowCount());
+		board.undo();
+		assertEquals(0, board.getFullRowCount());
+		
+		board.place(square, 0, 0);
+		assertEquals(2, board.clearRows());
+		assertEquals(0, board.getFullRowCount());
+		assertEquals(0, board.clearRows());
+		board.undo();
+		assertEquals(0, board.getFullRowCount());
+		
+		// full rows pushed up by garbage are still cleared
+		board.place(square, 0, 0);
+		board.commit();
+		board.addGarbage(1, 1);
+		assertEquals(2, board.getFullRowCount());
+		assertEquals(2, board.clearRows());
+		assertEquals(1, board.getMaxHeight());
+		assertEquals(1, board.getRowWidth(0));
+		board.undo();
+		assertEquals(2, board.getFullRowCount());
+		assertEquals(2, board.getMaxHeight());
+	}
+	
+	// dropHeights() gives dropHeight() at every x, for the standard pieces and the pentominoes
+	@Test
+	public void testDropHeights() {
+		Board board = new Board(10, 20);
+		board.place(lo1, 0, 0);
+		board.commit();
+		board.place(so1, 4, 0);
+		board.commit();
+		board.place(stick, 9, 0);
+		board.commit();
+		
+		int[] drops = new int[10];
+		assertEquals(8, board.dropHeights(pyr1, drops));
+		assertArrayEquals(new int[] {3, 1, 1, 2, 2, 2, 2, 4}, java.util.Arrays.copyOf(drops, 8));
+		
+		Piece[][] sets = { Piece.getPieces(), PieceRegistry.getPentominoes() };
+		for (Piece[] set : sets) {
+			for (Piece root : set) {
+				Piece p = root;
+				do {
+					int positions = board.dropHeights(p, drops);
+					assertEquals(10 - p.getWidth() + 1, positions);
+					for (int x = 0; x < positions; x++) assertEquals(board.dropHeight(p, x), drops[x]);
+					p = p.fastRotation();
+				} while (p != root);
+			}
+		}
+	}
+	
+	// placementHash() predicts the hash after place() and clearRows()
+	@Test
+	public void testPlacementHash() {
+		java.util.Random random = new java.util.Random(18);
+		int[] widths = {4, 10, 70};
+		for (int width : widths) {
+			Board board = new Board(width, 20);
+			Piece[] pieces = Piece.getPieces();
+			for (int i = 0; i < 300; i++) {
+				Piece piece = pieces[random.nextInt(pieces.length)];
+				for (int r = random.nextInt(4); r > 0; r--) piece = piece.fastRotation();
+				int x = random.nextInt(width - piece.getWidth() + 1);
+				int y = board.dropHeight(piece, x);
+				if (y + piece.getHeight() > 20) {
+					board = new Board(width, 20);
+					continue;
+				}
+				long predicted = board.placementHash(piece, x, y);
+				board.place(piece, x, y);
+				board.clearRows();
+				board.commit();
+				assertEquals(predicted, board.getZobristHash());
+			}
+		}
+	}
+	
+	// A cleared board is the same as a new one
+	@Test
+	public void testClear() {
+		Board big = new Board(10, 24);
+		big.addGarbage(3, 4);
+		big.commit();
+		big.place(stick, 0, 3);
+		big.clear();
+		
+		Board empty = new Board(10, 24);
+		assertEquals(0, big.getMaxHeight());
+		assertEquals(empty.getZobristHash(), big.getZobristHash());
+		int[] features = new int[Board.FEATURE_COUNT];
+		int[] emptyFeatures = new int[Board.FEATURE_COUNT];
+		big.getFeatures(features);
+		empty.getFeatures(emptyFeatures);
+		assertArrayEquals(emptyFeatures, features);
+		
+		// and plays on the same
+		assertEquals(Board.PLACE_OK, big.place(stick, 2, 0));
+		big.undo();
+		assertEquals(0, big.getColumnHeight(2));
+	}
+	
 }
@@ -27,4 +27,29 @@ public interface Brain {
      * (just to save the memory allocation).
      */
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move);
+    
+    /* Method: bestMove
+     * ----------------
+     * As above, but also given the pieces that will follow this one, in
+     * order, such as the ones JTetris shows in its preview. Brains that
+     * look ahead use them; by default they are ignored.
+     */
+    public default Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, limitHeight, move);
+    }
+    
+    /* Method: bestMove
+     * ----------------
+     * As above, but returns by the deadline (in System.nanoTime() terms),
+     * or soon after the token (if not null) is cancelled, with the best move
+     * it has finished. Brains that search for as long as they are given
+     * override this; by default the brain's own answer comes first, and the
+     * rest of the time deepens it a piece of the preview at a time (see
+     * IterativeDeepening), so there is always a move ready to return.
+     * The brain's own answer is not interrupted, so it must be quick.
+     */
+    public default Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight,
+                                       long deadline, CancellationToken token, Brain.Move move) {
+        return IterativeDeepening.bestMove(this, board, piece, preview, limitHeight, deadline, token, move);
+    }
 }
@@ -0,0 +1,183 @@
+/* Class: BrainBenchmark.java
+ * --------------------------
+ * Times DefaultBrain against ParallelBrain on boards filled to different
+ * levels, and checks that both choose the same move every time. Then does
+ * the same for DefaultBrain with a FeatureEvaluator, rating every feature
+ * of every placement against bounded rating, and reports how many features
+ * each decision adds up.
+ *
+ * The evaluator uses the weights in the file given with -Dtetris.weights,
+ * or else Dellacherie's.
+ *
+ * ParallelBrain only splits a decision up on boards wide enough to give
+ * each thread ParallelBrain.MIN_RUN_PLACEMENTS placements, so on narrower
+ * ones the two times differ only by noise. So a ParallelBrain that always
+ * splits a decision in two is timed too, on a pool of two threads, with the
+ * time that adds over DefaultBrain in placements' worth of rating: what a
+ * run must be worth for a split to pay. With one core that is the whole
+ * cost of a split; with more, the width where it turns negative is where
+ * splitting starts to win.
+ *
+ * Usage: java tetris.BrainBenchmark [width [height [threads]]]
+ * The board is 10x24 by default, and the pool has one thread per core.
+ */
+package tetris;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class BrainBenchmark {
+	private static final int BOARDS = 200;
+	private static final int ROUNDS = 20;
+
+	// Dellacherie's hand-tuned weights, which use the features only the board gives
+	private static final String DELLACHERIE = "landing_height 1\neroded_cells -1\nrow_transitions 1\n"
+			+ "column_transitions 1\nholes 4\nwells 1\n";
+
+	public static void main(String[] args) {
+		int width = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+		int height = (args.length > 1) ? Integer.parseInt(args[1]) : 24;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int limitHeight = height - 4;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Brain serial = new DefaultBrain();
+		Brain parallel = new ParallelBrain(pool);
+		ForkJoinPool splitPool = new ForkJoinPool(2);
+		Brain split = new ParallelBrain(splitPool, 1);
+		Piece[] pieces = Piece.getPieces();
+		System.out.println("Board " + width + "x" + height + ", " + threads + " threads");
+
+		FeatureEvaluator evaluator = new FeatureEvaluator();
+		String weightsFile = System.getProperty("tetris.weights");
+		if (weightsFile != null) evaluator.loadWeights(weightsFile);
+		else {
+			try {
+				evaluator.setWeights(FeatureEvaluator.readWeights(new StringReader(DELLACHERIE)));
+			} catch (IOException e) {
+				throw new RuntimeException(e);    // cannot happen with a StringReader
+			}
+		}
+		DefaultBrain exhaustive = new DefaultBrain();
+		exhaustive.setEvaluator(evaluator);
+		exhaustive.setBounded(false);
+		DefaultBrain bounded = new DefaultBrain();
+		bounded.setEvaluator(evaluator);
+
+		// fill levels, as a fraction of limitHeight
+		for (int percent = 0; percent <= 75; percent += 25) {
+			Random random = new Random(percent);
+			Board[] boards = new Board[BOARDS];
+			for (int i = 0; i < BOARDS; i++) boards[i] = makeBoard(width, height, limitHeight * percent / 100, random);
+
+			// check, and warm up, before timing
+			check(serial, parallel, boards, pieces, limitHeight, "ParallelBrain");
+
+			double serialTime = time(serial, boards, pieces, limitHeight);
+			double parallelTime = time(parallel, boards, pieces, limitHeight);
+			System.out.printf("%3d%% full: DefaultBrain %8.2f us/move, ParallelBrain %8.2f us/move, speedup %.2fx%n",
+					percent, serialTime, parallelTime, serialTime / parallelTime);
+
+			check(serial, split, boards, pieces, limitHeight, "split ParallelBrain");
+			double splitTime = time(split, boards, pieces, limitHeight);
+			double placementTime = serialTime / placementsPerMove(width, pieces);
+			System.out.printf("%3d%% full: split in two %8.2f us/move, %+.2f us, %+.0f placements' worth%n",
+					percent, splitTime, splitTime - serialTime, (splitTime - serialTime) / placementTime);
+
+			check(exhaustive, bounded, boards, pieces, limitHeight, "bounded DefaultBrain");
+			long decisions = (long)ROUNDS * boards.length * pieces.length;
+			evaluator.resetCounters();
+			double exhaustiveTime = time(exhaustive, boards, pieces, limitHeight);
+			double exhaustiveFeatures = (double)evaluator.getFeaturesRated() / decisions;
+			double exhaustivePlayed = (double)evaluator.getPlacementsPlayed() / decisions;
+			evaluator.resetCounters();
+			double boundedTime = time(bounded, boards, pieces, limitHeight);
+			double boundedFeatures = (double)evaluator.getFeaturesRated() / decisions;
+			double boundedPlayed = (double)evaluator.getPlacementsPlayed() / decisions;
+			System.out.printf("%3d%% full: every feature %6.1f features %5.1f played %8.2f us/move, "
+					+ "bounded %6.1f features %5.1f played %8.2f us/move (%.0f%% fewer features)%n",
+					percent, exhaustiveFeatures, exhaustivePlayed, exhaustiveTime, boundedFeatures, boundedPlayed, boundedTime,
+					100 * (1 - boundedFeatures / exhaustiveFeatures));
+		}
+		pool.shutdown();
+		splitPool.shutdown();
+	}
+
+	/* Method: placementsPerMove
+	 * -------------------------
+	 * Returns the number of placements of a piece on an empty board of the
+	 * given width, averaged over the pieces.
+	 */
+	private static double placementsPerMove(int width, Piece[] pieces) {
+		int placements = 0;
+		for (Piece piece : pieces) {
+			Piece current = piece;
+			do {
+				placements += width - current.getWidth() + 1;
+				current = current.fastRotation();
+			} while (current != piece);
+		}
+		return (double)placements / pieces.length;
+	}
+
+	/* Method: check
+	 * -------------
+	 * Throws if the second brain chooses a different move than the first
+	 * for any piece on any of the boards.
+	 */
+	private static void check(Brain first, Brain second, Board[] boards, Piece[] pieces, int limitHeight, String name) {
+		Brain.Move a = new Brain.Move();
+		Brain.Move b = new Brain.Move();
+		for (int i = 0; i < boards.length; i++) {
+			for (Piece piece : pieces) {
+				Brain.Move ma = first.bestMove(boards[i], piece, limitHeight, a);
+				Brain.Move mb = second.bestMove(boards[i], piece, limitHeight, b);
+				if ((ma == null) != (mb == null) || (ma != null && (ma.x != mb.x || ma.y != mb.y || ma.piece != mb.piece || ma.score != mb.score))) {
+					throw new RuntimeException(name + " chose a different move on board " + i);
+				}
+			}
+		}
+	}
+
+	/* Method: makeBoard
+	 * -----------------
+	 * Returns a board with about the given number of rows of garbage,
+	 * each with a random hole, and a few random pieces dropped on top.
+	 */
+	private static Board makeBoard(int width, int height, int rows, Random random) {
+		Board board = new Board(width, height);
+		for (int y = 0; y < rows; y++) {
+			board.addGarbage(1, random.nextInt(width));
+			board.commit();
+		}
+		Piece[] pieces = Piece.getPieces();
+		for (int i = 0; i < 3; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(width - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			if (y + piece.getHeight() > height) continue;
+			board.place(piece, x, y);
+			board.clearRows();
+			board.commit();
+		}
+		return board;
+	}
+
+	/* Method: time
+	 * ------------
+	 * Returns the average time per bestMove() call in microseconds.
+	 */
+	private static double time(Brain brain, Board[] boards, Piece[] pieces, int limitHeight) {
+		Brain.Move move = new Brain.Move();
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (Board board : boards) {
+				for (Piece piece : pieces) brain.bestMove(board, piece, limitHeight, move);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		return elapsed / 1000.0 / ((long)ROUNDS * boards.length * pieces.length);
+	}
+}
@@ -0,0 +1,117 @@
+/* Class: BrainDriver.java
+ * -----------------------
+ * Plays a GameEngine with a Brain, the way JBrainTetris plays when its
+ * brain is active. Each tick() stands for one timer tick: the brain picks
+ * a move when a new piece comes into play, and on every tick the piece
+ * rotates once if it is not yet in the chosen rotation, moves one column
+ * towards the chosen x, and moves down. The piece falls while it is being
+ * moved, so it can land short of the brain's move.
+ *
+ * playGame() runs ticks until the game ends, with no display, so a game
+ * played headless is the same as one played in the GUI with the same pieces.
+ * JBrainTetris only gives the searching brains (look ahead, rollouts) a time
+ * budget; with one, the brain is asked for its move by a deadline, and how
+ * far it gets depends on the clock.
+ */
+package tetris;
+
+import java.util.Random;
+
+public class BrainDriver {
+	private final GameEngine engine;
+	private Brain brain;
+	private long budgetNanos;
+
+	// The move for the piece in play, and which piece of which game it is for
+	private Brain.Move bestMove;
+	private final Brain.Move move = new Brain.Move();
+	private int moveCount;
+	private int moveGame;
+
+	/* Constructor: BrainDriver
+	 * ------------------------
+	 * Creates a driver that plays the given engine with the given brain.
+	 */
+	public BrainDriver(GameEngine engine, Brain brain) {
+		this.engine = engine;
+		this.brain = brain;
+	}
+
+	/* Method: setBrain
+	 * ----------------
+	 * Changes the brain, from the next piece on.
+	 */
+	public void setBrain(Brain brain) {
+		this.brain = brain;
+	}
+
+	/* Method: setBudget
+	 * -----------------
+	 * Sets the time the brain has for each move, from the next move on, or
+	 * with 0, lets it take as long as it takes.
+	 */
+	public void setBudget(long budgetMillis) {
+		this.budgetNanos = Math.max(0, budgetMillis) * 1000000L;
+	}
+	
+	/* Method: getBrain
+	 * ----------------
+	 * Returns the brain that plays.
+	 */
+	public Brain getBrain() {
+		return brain;
+	}
+
+	/* Method: tick
+	 * ------------
+	 * Plays one timer tick for the brain: asks the brain for a move if the
+	 * piece in play is new (by the budget's deadline, if there is one), then ticks the engine with ROTATE, LEFT or RIGHT
+	 * as needed, and DOWN.
+	 */
+	public void tick() {
+		if (!engine.isGameOn()) return;
+
+		final Board board = engine.getBoard();
+		board.undo();	// the brain needs the board without the falling piece
+		if (moveCount != engine.getCount() || moveGame != engine.getGames()) {
+			moveCount = engine.getCount();
+			moveGame = engine.getGames();
+			if (budgetNanos > 0) {
+				bestMove = brain.bestMove(board, engine.getCurrentPiece(), engine.getPreview(), engine.getLimitHeight(),
+						System.nanoTime() + budgetNanos, null, move);
+			} else {
+				bestMove = brain.bestMove(board, engine.getCurrentPiece(), engine.getPreview(), engine.getLimitHeight(), move);
+			}
+		}
+
+		if (bestMove != null) {
+			if (!engine.getCurrentPiece().equals(bestMove.piece)) {
+				engine.tick(GameEngine.ROTATE);
+			}
+
+			if (bestMove.x < engine.getCurrentX()) {
+				engine.tick(GameEngine.LEFT);
+			} else if (bestMove.x > engine.getCurrentX()) {
+				engine.tick(GameEngine.RIGHT);
+			}
+		}
+		// the piece must move down following any rotation and/or left/right move
+		engine.tick(GameEngine.DOWN);
+	}
+
+	/* Method: playGame
+	 * ----------------
+	 * Starts a game with pieces from the given random generator and plays it
+	 * to the end, or until pieceLimit pieces have been played if that is > 0.
+	 * Returns the number of ticks played.
+	 */
+	public long playGame(Random random, int pieceLimit) {
+		engine.startGame(random, pieceLimit);
+		long ticks = 0;
+		while (engine.isGameOn()) {
+			tick();
+			ticks++;
+		}
+		return ticks;
+	}
+}
@@ -0,0 +1,45 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+// Checks the brain tests share
+class BrainTestSupport {
+	private BrainTestSupport() {
+	}
+
+	// Plays random pieces on the board, each shown previewLength random preview pieces, checking that the actual
+	// brain makes the same moves as the expected one and leaves the board as it found it. The expected moves are
+	// played, but every other piece goes anywhere it fits, to make some mess.
+	static void assertSameMoves(Brain expected, Brain actual, Board board, int previewLength, int moves, long seed) {
+		Piece[] pieces = Piece.getPieces();
+		Random random = new Random(seed);
+		Piece[] preview = new Piece[previewLength];
+		Brain.Move expectedMove = new Brain.Move();
+		Brain.Move actualMove = new Brain.Move();
+		for (int i = 0; i < moves; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			for (int p = 0; p < previewLength; p++) preview[p] = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+			long hash = board.getZobristHash();
+			if (expected.bestMove(board, piece, preview, 20, expectedMove) == null) {
+				assertNull(actual.bestMove(board, piece, preview, 20, actualMove));
+				assertEquals(hash, board.getZobristHash());
+				return;
+			}
+			assertNotNull(actual.bestMove(board, piece, preview, 20, actualMove));
+			assertEquals(hash, board.getZobristHash());	// the plays rated were all backed out
+			assertEquals(expectedMove.piece, actualMove.piece);
+			assertEquals(expectedMove.x, actualMove.x);
+			assertEquals(expectedMove.y, actualMove.y);
+			assertEquals(expectedMove.score, actualMove.score, 1e-9);
+
+			int y = board.dropHeight(piece, x);
+			if (i % 2 == 1 && y + piece.getHeight() <= 20) board.place(piece, x, y);
+			else board.place(expectedMove.piece, expectedMove.x, expectedMove.y);
+			board.clearRows();
+			board.commit();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/* Class: CancellationToken.java
+ * -----------------------------
+ * A flag one thread raises to tell a brain on another thread to stop
+ * thinking. A brain given a token checks it as often as it checks its
+ * deadline, and when it is raised returns the best move it has finished
+ * with, the same as when the deadline passes. Once cancelled, a token stays
+ * cancelled; each decision that may be cancelled on its own needs its own.
+ */
+package tetris;
+
+public class CancellationToken {
+	private volatile boolean cancelled;
+
+	/* Method: cancel
+	 * --------------
+	 * Asks every brain given this token to return as soon as it can.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/* Method: isCancelled
+	 * -------------------
+	 * Returns whether cancel() has been called.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/* Method: isExpired
+	 * -----------------
+	 * Returns whether a brain with the given deadline (in System.nanoTime()
+	 * terms) and token must stop now. The token may be null, for none.
+	 */
+	public static boolean isExpired(long deadline, CancellationToken token) {
+		return System.nanoTime() > deadline || (token != null && token.cancelled);
+	}
+}
@@ -5,15 +5,96 @@
  * and rotations to play a particular piece (there are only
  * around 10-30 ways to play a piece).
  * 
- * For each play, it uses the rateBoard() message to rate how
+ * For each play, it uses the ratePlacement() message to rate how
  * good the resulting board is and it just remembers the
- * play with the lowest score. Undo() is used to back-out
- * each play before trying the next.
+ * play with the lowest score. The board describes all the plays
+ * in one pass with evaluatePlacements(), so nothing is placed
+ * or backed out.
+ *
+ * With a FeatureEvaluator, the plays are rated lowest first, and each
+ * rating stops as soon as the play cannot beat the best one so far.
+ *
+ * Subclasses change the scoring by overriding rateFeatures(), which every
+ * rating goes through. A subclass that overrides rateBoard() instead still
+ * has it used: each play is then placed on the board and backed out again
+ * to be rated, which is much slower.
+ *
+ * bestMove() keeps its work buffers in the brain, so one brain must not be
+ * asked for moves by two threads at once. The rating methods only use what
+ * they are given, and may be called from any number of threads, each with
+ * its own board.
  */
 
 package tetris;
 
+import java.util.Arrays;
+
 public class DefaultBrain implements Brain {
+    // Results of Board.evaluatePlacements(), reused from move to move
+    private int[] placements = new int[0];
+    
+    // Placement indexes in the order bestMove() rates them, and a count per drop height to sort them
+    private int[] order = new int[0];
+    private int[] heightCounts = new int[0];
+    
+    // Whether bestMove() stops rating placements that cannot beat the best one so far
+    private boolean bounded = true;
+    
+    // Whether a subclass overrides rateBoard(), so placements must be played to be rated
+    private final boolean playToRate = overridesRateBoard(getClass());
+    
+    // Scores of boards already rated, or null to rate every board
+    private EvalCache evalCache;
+    
+    // The weighted features boards are rated with, or null for rateFeatures()
+    private volatile FeatureEvaluator evaluator;
+    
+	/* Method: setEvaluator
+	 * --------------------
+	 * Makes the brain rate boards with the given evaluator instead of
+	 * rateFeatures(). null goes back to rateFeatures(). The evaluator's
+	 * weights may be changed at any time, even during a move.
+	 */
+    public void setEvaluator(FeatureEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+    
+	/* Method: getEvaluator
+	 * --------------------
+	 * Returns the evaluator set with setEvaluator(), or null.
+	 */
+    public FeatureEvaluator getEvaluator() {
+        return evaluator;
+    }
+    
+	/* Method: setBounded
+	 * ------------------
+	 * With an evaluator, bestMove() rates the placements lowest first and
+	 * stops rating each one as soon as it cannot beat the best so far. The
+	 * move is the same either way; this turns the bounds off, to compare.
+	 */
+    public void setBounded(boolean bounded) {
+        this.bounded = bounded;
+    }
+    
+	/* Method: setEvalCache
+	 * --------------------
+	 * Makes the brain look the boards it rates up in the given cache first,
+	 * and store them there. null turns caching off. The cache must only be
+	 * shared with brains that rate boards the same way.
+	 */
+    public void setEvalCache(EvalCache evalCache) {
+        this.evalCache = evalCache;
+    }
+    
+	/* Method: getEvalCache
+	 * --------------------
+	 * Returns the cache set with setEvalCache(), or null.
+	 */
+    public EvalCache getEvalCache() {
+        return evalCache;
+    }
+    
 	/* Method: bestMove
 	 * ----------------
 	 * Given a piece and a board, returns a move object that represents
@@ -24,83 +105,188 @@ public class DefaultBrain implements Brain {
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
         
-        double bestScore = 1e20;
-        int bestX = 0;
-        int bestY = 0;
-        Piece bestPiece = null;
-        Piece current = piece;
-        
         board.commit();
         
-        // loop through all the rotations
-        while (true) {
-            final int yBound = limitHeight - current.getHeight()+1;
-            final int xBound = board.getWidth() - current.getWidth()+1;
-            
-            // For current rotation, try all the possible columns
-            for (int x = 0; x<xBound; x++) {
-                int y = board.dropHeight(current, x);
-                if (y<yBound) {    // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-                        
-                        double score = rateBoard(board);
-                        
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
-          
-                    board.undo();    // back out that play, loop around for the next
+        // the board rates every rotation and column in one pass, without being changed
+        final int needed = Board.EVAL_STRIDE * 4 * board.getWidth();
+        if (placements.length < needed) placements = new int[needed];
+        final int count = board.evaluatePlacements(piece, limitHeight, placements);
+        
+        double bestScore = 1e20;
+        int best = -1;
+        if (bounded && evaluator != null) {
+            // lowest placements first, so a good score is found early and bounds the
+            // rest; ties go to the placement found first, as below
+            orderByHeight(board, count);
+            for (int k = 0; k<count; k++) {
+                final int i = order[k];
+                double score = ratePlacement(board, piece, placements, i, bestScore);
+                if (score<bestScore || (score==bestScore && i<best)) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+        } else {
+            for (int i = 0; i<count; i++) {
+                double score = ratePlacement(board, piece, placements, i);
+                if (score<bestScore) {
+                    bestScore = score;
+                    best = i;
                 }
             }
-            
-            current = current.fastRotation();
-            if (current == piece) break;    // break if back to original rotation
         }
         
-        if (bestPiece == null) return(null);    // could not find a play at all!
+        if (best < 0) return(null);    // could not find a play at all!
         else {
-            move.x = bestX;
-            move.y = bestY;
+            final int base = best * Board.EVAL_STRIDE;
+            Piece bestPiece = piece;
+            for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) bestPiece = bestPiece.fastRotation();
+            
+            move.x = placements[base + Board.EVAL_X];
+            move.y = placements[base + Board.EVAL_Y];
             move.piece = bestPiece;
             move.score = bestScore;
             return(move);
         }
     }
+    
+    /* Method: orderByHeight
+	 * ---------------------
+	 * Fills order with the indexes of the first count placements, sorted
+	 * by drop height, lowest first, and by index among equal heights.
+	 */
+    private void orderByHeight(Board board, int count) {
+        if (order.length < count) order = new int[placements.length / Board.EVAL_STRIDE];
+        if (heightCounts.length < board.getHeight() + 1) heightCounts = new int[board.getHeight() + 1];
+        final int[] starts = heightCounts;
+        Arrays.fill(starts, 0);
+        for (int i = 0; i<count; i++) starts[placements[i * Board.EVAL_STRIDE + Board.EVAL_Y]]++;
+        int start = 0;
+        for (int y = 0; y<starts.length; y++) {
+            final int n = starts[y];
+            starts[y] = start;
+            start += n;
+        }
+        for (int i = 0; i<count; i++) order[starts[placements[i * Board.EVAL_STRIDE + Board.EVAL_Y]]++] = i;
+    }
+    
+    /* Method: ratePlacement
+	 * ---------------------
+	 * As below, for the results of Board.evaluatePlacements() for the given
+	 * piece, but looks the score up in the eval cache first, if there is one.
+	 * The cache is keyed by the hash of the board the placement leads to,
+	 * and by the evaluator's weights, if there is an evaluator.
+	 */
+    public double ratePlacement(Board board, Piece piece, int[] placements, int index) {
+        return ratePlacement(board, piece, placements, index, Double.POSITIVE_INFINITY);
+    }
+    
+    /* Method: ratePlacement
+	 * ---------------------
+	 * As above, but with an evaluator the rating may stop early once the
+	 * score is sure to be above bound, and return any score above bound.
+	 * Only full scores go into the cache.
+	 */
+    public double ratePlacement(Board board, Piece piece, int[] placements, int index, double bound) {
+        final FeatureEvaluator evaluator = this.evaluator;
+        if (evalCache == null) return rateUncached(board, piece, placements, index, evaluator, bound);
+        
+        final int base = index * Board.EVAL_STRIDE;
+        Piece rotated = piece;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) rotated = rotated.fastRotation();
+        final long hash = board.placementHash(rotated, placements[base + Board.EVAL_X], placements[base + Board.EVAL_Y]);
+        long key = EvalCache.boardKey(hash, board.getWidth(), board.getHeight());
+        if (evaluator != null) key = evaluator.cacheKey(key, rotated, placements, index);
+        double score = evalCache.get(key);
+        if (Double.isNaN(score)) {
+            score = rateUncached(board, piece, placements, index, evaluator, bound);
+            if (score <= bound) evalCache.put(key, score);
+        }
+        return score;
+    }
+    
+    /* Method: rateUncached
+	 * --------------------
+	 * Rates a placement of the piece (the unrotated one) with the
+	 * evaluator, bounded, or with ratePlacement() below if there is none.
+	 */
+    private double rateUncached(Board board, Piece piece, int[] placements, int index, FeatureEvaluator evaluator, double bound) {
+        if (playToRate) return ratePlayed(board, piece, placements, index);
+        if (evaluator == null) return ratePlacement(board, placements, index);
+        return evaluator.ratePlacement(board, piece, placements, index, bound);
+    }
+    
+    /* Method: ratePlayed
+	 * ------------------
+	 * Rates a placement of the piece (the unrotated one) with rateBoard(),
+	 * by playing it on the board and backing it out again.
+	 */
+    private double ratePlayed(Board board, Piece piece, int[] placements, int index) {
+        final int base = index * Board.EVAL_STRIDE;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+        final int mark = board.mark();
+        if (board.place(piece, placements[base + Board.EVAL_X], placements[base + Board.EVAL_Y]) > Board.PLACE_ROW_FILLED) {
+            throw new RuntimeException("Placement to rate failed");
+        }
+        board.clearRows();
+        final double score = rateBoard(board);
+        board.rollback(mark);
+        board.release(mark);
+        return score;
+    }
+    
+    /* Method: overridesRateBoard
+	 * --------------------------
+	 * Returns whether the given brain class overrides rateBoard().
+	 */
+    private static boolean overridesRateBoard(Class<?> type) {
+        try {
+            return type.getMethod("rateBoard", Board.class).getDeclaringClass() != DefaultBrain.class;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException("DefaultBrain has no rateBoard()", e);
+        }
+    }
+    
+    /* Method: ratePlacement
+	 * ---------------------
+	 * Rates the board as it would be after the given placement, one of the
+	 * results of Board.evaluatePlacements(), on the same scale as rateBoard().
+	 * This is always rateFeatures() of the placement's features: without the
+	 * piece it cannot be played, so an overridden rateBoard() is not used.
+	 */
+    public double ratePlacement(Board board, int[] placements, int index) {
+        final int base = index * Board.EVAL_STRIDE;
+        final int maxHeight = placements[base + Board.EVAL_MAX_HEIGHT];
+        final int sumHeight = board.getAggregateHeight() + placements[base + Board.EVAL_HEIGHT_DELTA];
+        final int holes = board.getHoles() + placements[base + Board.EVAL_HOLES_DELTA];
+        return rateFeatures(board.getWidth(), maxHeight, sumHeight, holes);
+    }
 
     /* Method: rateBoard
 	 * -----------------
 	 * Given a board, produce a double that rates that board position -- larger 
 	 * numbers for worse boards. This version just counts the height and the number 
-	 * of "holes" in the board - could be more sophisticated.
+	 * of "holes" in the board - could be more sophisticated. Both come from the
+	 * board's incrementally maintained features, so rating is O(1). Subclasses
+	 * may override it, at a cost (see the class comment).
 	 */
     public double rateBoard(Board board) {
+        final FeatureEvaluator evaluator = this.evaluator;
+        if (evaluator != null) return evaluator.rateBoard(board);
+        
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
         
-        int sumHeight = 0;
-        int holes = 0;
-        
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            
-            int y = colHeight - 2;    // addr of first possible hole
-            
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
-                }
-                y--;
-            }
-        }
-        
+        // the board keeps both counts up to date, so nothing needs to be scanned
+        return rateFeatures(width, maxHeight, board.getAggregateHeight(), board.getHoles());
+    }
+    
+    /* Method: rateFeatures
+	 * --------------------
+	 * The scoring used by rateBoard() and ratePlacement(): rates a board with
+	 * the given width, max height, sum of column heights and number of holes.
+	 */
+    public double rateFeatures(int width, int maxHeight, int sumHeight, int holes) {
         double avgHeight = ((double)sumHeight)/width;
         
         // Add up the counts to make an overall score
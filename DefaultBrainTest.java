@@ -0,0 +1,20 @@
+package tetris;
+
+import org.junit.*;
+
+public class DefaultBrainTest {
+	// A subclass that overrides rateBoard() has it used, and gets the moves the same scoring gives through rateFeatures()
+	@Test
+	public void testRateBoardOverride() {
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new DefaultBrain() {
+			public double rateBoard(Board board) {
+				return super.rateBoard(board);
+			}
+		}, new Board(10, 24), 0, 60, 7);
+		BrainTestSupport.assertSameMoves(new BadBrain(), new DefaultBrain() {
+			public double rateBoard(Board board) {
+				return 10000 - super.rateBoard(board);
+			}
+		}, new Board(10, 24), 0, 60, 7);
+	}
+}
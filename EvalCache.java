@@ -0,0 +1,199 @@
+/* Class: EvalCache.java
+ * ---------------------
+ * A bounded transposition cache from board fingerprints to scores, which a
+ * Brain can use to avoid rating the same board twice. The fingerprint is
+ * boardKey() of the board's Zobrist hash; for a board that a placement would
+ * reach, Board.placementHash() gives that hash without building the board.
+ * Boards reached by different moves, or from different boards, share an entry.
+ *
+ * The cache is a fixed table of buckets of WAYS entries, sized from a memory
+ * budget. It takes no locks: each entry is two longs in an AtomicLongArray,
+ * the key XORed with the score and the score, so an entry torn by two threads
+ * writing it at once fails the key check and reads as a miss. A full bucket
+ * evicts with the second-chance (clock) policy: entries hit since the last
+ * sweep keep their place once, and the first one not hit is replaced.
+ *
+ * A cache holds the scores of one rating function; brains that rate boards
+ * differently must not share one.
+ */
+package tetris;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class EvalCache {
+	// Entries per bucket
+	public static final int WAYS = 4;
+
+	// Bytes each entry takes: two longs and a referenced flag
+	private static final int ENTRY_BYTES = 20;
+
+	private final AtomicLongArray table;		// [key ^ score bits, score bits] per entry
+	private final AtomicIntegerArray referenced;	// 1 if the entry was hit since the last sweep
+	private final int bucketMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/* Constructor: EvalCache
+	 * ----------------------
+	 * Creates a cache that uses at most about budgetBytes of memory. The
+	 * number of buckets is rounded down to a power of two, and is at least 1.
+	 */
+	public EvalCache(long budgetBytes) {
+		long buckets = Math.max(1, budgetBytes / (ENTRY_BYTES * WAYS));
+		buckets = Long.highestOneBit(Math.min(buckets, 1L << 26));
+		bucketMask = (int)buckets - 1;
+		table = new AtomicLongArray((int)buckets * WAYS * 2);
+		referenced = new AtomicIntegerArray((int)buckets * WAYS);
+	}
+
+	/* Method: boardKey
+	 * ----------------
+	 * Returns the fingerprint of a board with the given Zobrist hash and size.
+	 * The size is mixed in since the hash only covers the grid contents.
+	 */
+	public static long boardKey(long zobristHash, int width, int height) {
+		long z = zobristHash ^ (((long)width << 32 | height) * 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/* Method: get
+	 * -----------
+	 * Returns the score stored for the key, or NaN if there is none.
+	 */
+	public double get(long key) {
+		if (key == 0) key = 1;	// 0 marks an empty entry
+		int entry = bucketOf(key) * WAYS;
+		for (int way = 0; way < WAYS; way++, entry++) {
+			long bits = table.get(2*entry + 1);
+			if ((table.get(2*entry) ^ bits) == key) {
+				if (referenced.get(entry) == 0) referenced.lazySet(entry, 1);
+				hits.increment();
+				return Double.longBitsToDouble(bits);
+			}
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/* Method: put
+	 * -----------
+	 * Stores the score for the key, replacing the key's old score, or else
+	 * an empty entry, or else evicting an entry of the bucket.
+	 */
+	public void put(long key, double score) {
+		if (key == 0) key = 1;
+		long bits = Double.doubleToRawLongBits(score);
+		int first = bucketOf(key) * WAYS;
+
+		// the key itself, or an empty entry
+		for (int entry = first; entry < first + WAYS; entry++) {
+			long check = table.get(2*entry);
+			long old = table.get(2*entry + 1);
+			if ((check ^ old) == key || (check == 0 && old == 0)) {
+				write(entry, key, bits);
+				return;
+			}
+		}
+
+		// second chance: clear the flags of hit entries until one has not been hit
+		int victim = first;
+		for (int entry = first; entry < first + WAYS; entry++) {
+			if (referenced.get(entry) == 0) {
+				victim = entry;
+				break;
+			}
+			referenced.lazySet(entry, 0);
+		}
+		evictions.increment();
+		write(victim, key, bits);
+	}
+
+	/* Method: write
+	 * -------------
+	 * Fills in one entry.
+	 */
+	private void write(int entry, long key, long bits) {
+		table.set(2*entry + 1, bits);
+		table.set(2*entry, key ^ bits);
+		referenced.lazySet(entry, 0);
+	}
+
+	/* Method: bucketOf
+	 * ----------------
+	 * Returns the bucket a key belongs in. Keys are already well mixed,
+	 * so their high bits are used directly.
+	 */
+	private int bucketOf(long key) {
+		return (int)(key >>> 32) & bucketMask;
+	}
+
+	/* Method: clear
+	 * -------------
+	 * Empties the cache and zeroes the counters. Must not run while
+	 * other threads use the cache.
+	 */
+	public void clear() {
+		for (int i = 0; i < table.length(); i++) table.set(i, 0);
+		for (int i = 0; i < referenced.length(); i++) referenced.set(i, 0);
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/* Method: getCapacity
+	 * -------------------
+	 * Returns the number of entries the cache holds.
+	 */
+	public int getCapacity() {
+		return referenced.length();
+	}
+
+	/* Method: getHits
+	 * ---------------
+	 * Returns the number of get() calls that found a score.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/* Method: getMisses
+	 * -----------------
+	 * Returns the number of get() calls that found nothing.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/* Method: getEvictions
+	 * --------------------
+	 * Returns the number of entries put() has replaced with another key.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/* Method: getHitRate
+	 * ------------------
+	 * Returns the fraction of get() calls that found a score, or 0 before any.
+	 */
+	public double getHitRate() {
+		long h = getHits();
+		long total = h + getMisses();
+		return (total == 0) ? 0 : (double)h / total;
+	}
+
+	/* Method: toString
+	 * ----------------
+	 * Returns the counters, for reports.
+	 */
+	public String toString() {
+		return String.format("EvalCache %d entries: %d hits, %d misses (%.1f%%), %d evictions",
+				getCapacity(), getHits(), getMisses(), 100 * getHitRate(), getEvictions());
+	}
+}
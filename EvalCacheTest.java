@@ -0,0 +1,80 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class EvalCacheTest {
+	private EvalCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		// one bucket
+		cache = new EvalCache(1);
+	}
+
+	// Scores come back for the keys they were stored under
+	@Test
+	public void testPutGet() {
+		assertTrue(Double.isNaN(cache.get(42)));
+		cache.put(42, 1.5);
+		cache.put(0, -2.0);
+		assertEquals(1.5, cache.get(42), 0);
+		assertEquals(-2.0, cache.get(0), 0);
+		cache.put(42, 3.0);
+		assertEquals(3.0, cache.get(42), 0);
+		
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(0.75, cache.getHitRate(), 1e-9);
+	}
+
+	// A full bucket evicts an entry that was not hit since the last sweep
+	@Test
+	public void testSecondChance() {
+		assertEquals(EvalCache.WAYS, cache.getCapacity());
+		for (int i = 1; i <= EvalCache.WAYS; i++) cache.put(i, i);
+		cache.get(1);
+		cache.get(2);
+		
+		cache.put(100, 100);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(1.0, cache.get(1), 0);
+		assertEquals(2.0, cache.get(2), 0);
+		assertTrue(Double.isNaN(cache.get(3)));
+		assertEquals(4.0, cache.get(4), 0);
+		assertEquals(100.0, cache.get(100), 0);
+		
+		cache.clear();
+		assertTrue(Double.isNaN(cache.get(1)));
+		assertEquals(0, cache.getEvictions());
+	}
+
+	// A brain with a cache plays the same moves, and finds the boards again
+	@Test
+	public void testBrainCache() {
+		DefaultBrain plain = new DefaultBrain();
+		DefaultBrain cached = new DefaultBrain();
+		EvalCache brainCache = new EvalCache(1 << 20);
+		cached.setEvalCache(brainCache);
+		
+		Board board = new Board(10, 24);
+		Piece[] pieces = Piece.getPieces();
+		for (int i = 0; i < 40; i++) {
+			Piece piece = pieces[(i * 5) % pieces.length];
+			for (int pass = 0; pass < 2; pass++) {
+				Brain.Move a = plain.bestMove(board, piece, 20, null);
+				Brain.Move b = cached.bestMove(board, piece, 20, null);
+				assertSame(a.piece, b.piece);
+				assertEquals(a.x, b.x);
+				assertEquals(a.score, b.score, 0);
+			}
+			Brain.Move move = plain.bestMove(board, piece, 20, null);
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+		assertTrue(brainCache.getHits() >= brainCache.getMisses());
+	}
+}
@@ -0,0 +1,403 @@
+/* Class: FeatureEvaluator.java
+ * ----------------------------
+ * Rates boards as a weighted sum of board features, so that a Brain's
+ * scoring can be changed without subclassing it. The features are the
+ * ones the board keeps up to date (Board.getFeatures()), the average
+ * height, and three that describe the placement that led to the board:
+ * the landing height of the piece, the eroded cells (rows it cleared times
+ * its own cells in them) and the rows it cleared.
+ *
+ * Weights can be read from text, one "name weight" pair per line, with
+ * blank lines and lines starting with '#' skipped; features not named get
+ * a weight of 0. The default weights are the ones DefaultBrain has always
+ * used, and give exactly its scores.
+ *
+ * A rating can be given a bound, and then stops adding up features once
+ * the score is sure to end up above it, which lets a Brain skip most of the
+ * work for plays that cannot beat its best one so far.
+ *
+ * Rating allocates nothing. The weights are swapped as a whole, so they
+ * can be replaced while brains on other threads are rating with them;
+ * each rating uses either the old weights or the new ones.
+ */
+package tetris;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FeatureEvaluator {
+	// The features: first those of Board.getFeatures(), by the same index
+	public static final int AGGREGATE_HEIGHT = Board.FEATURE_AGGREGATE_HEIGHT;
+	public static final int HOLES = Board.FEATURE_HOLES;
+	public static final int COVERED_CELLS = Board.FEATURE_COVERED_CELLS;
+	public static final int BUMPINESS = Board.FEATURE_BUMPINESS;
+	public static final int ROW_TRANSITIONS = Board.FEATURE_ROW_TRANSITIONS;
+	public static final int COLUMN_TRANSITIONS = Board.FEATURE_COLUMN_TRANSITIONS;
+	public static final int WELLS = Board.FEATURE_WELLS;
+	public static final int MAX_HEIGHT = Board.FEATURE_MAX_HEIGHT;
+	public static final int AVERAGE_HEIGHT = Board.FEATURE_COUNT;
+	public static final int LANDING_HEIGHT = Board.FEATURE_COUNT + 1;
+	public static final int ERODED_CELLS = Board.FEATURE_COUNT + 2;
+	public static final int ROWS_CLEARED = Board.FEATURE_COUNT + 3;
+	public static final int FEATURE_COUNT = Board.FEATURE_COUNT + 4;
+
+	// Names of the features in weights text, by index
+	private static final String[] NAMES = {
+		"aggregate_height", "holes", "covered_cells", "bumpiness",
+		"row_transitions", "column_transitions", "wells", "max_height",
+		"average_height", "landing_height", "eroded_cells", "rows_cleared"
+	};
+
+	// Features the placement results give, in the order they are added up, and the ones only the board gives
+	private static final int[] PLACEMENT_FEATURES = { MAX_HEIGHT, AVERAGE_HEIGHT, HOLES, AGGREGATE_HEIGHT, LANDING_HEIGHT, ERODED_CELLS, ROWS_CLEARED };
+	private static final int[] SHAPE_FEATURES = { COVERED_CELLS, BUMPINESS, ROW_TRANSITIONS, COLUMN_TRANSITIONS, WELLS };
+
+	/* Class: Weights
+	 * --------------
+	 * One set of weights, never changed once made, with the order its
+	 * features are added up in and a stamp that tells it apart from other sets.
+	 */
+	private static final class Weights {
+		final double[] values;
+		final long stamp;
+		final boolean movesRated;	// true if a feature of the placement itself has a weight
+
+		// The features with a weight: those the placement results give first, so a
+		// placement is only played if the sum gets that far, and within each group
+		// those with negative weights first, so the sum only grows after firstExit
+		final int[] order;
+		final int firstShape;
+		final int firstExit;
+
+		Weights(double[] values) {
+			if (values.length != FEATURE_COUNT) throw new RuntimeException("Expected " + FEATURE_COUNT + " weights, got " + values.length);
+			this.values = values.clone();
+			long h = 1;
+			for (double w : this.values) h = h * 0x100000001B3L ^ Double.doubleToLongBits(w);
+			this.stamp = h * 0x9E3779B97F4A7C15L;
+			this.movesRated = values[LANDING_HEIGHT] != 0 || values[ERODED_CELLS] != 0 || values[ROWS_CLEARED] != 0;
+
+			int[] features = new int[FEATURE_COUNT];
+			int count = add(features, 0, PLACEMENT_FEATURES, true);
+			count = add(features, count, PLACEMENT_FEATURES, false);
+			int shapes = count;
+			count = add(features, count, SHAPE_FEATURES, true);
+			int exit = 0;
+			for (int k = 0; k < count; k++) {
+				if (this.values[features[k]] < 0) exit = k + 1;
+			}
+			count = add(features, count, SHAPE_FEATURES, false);
+			this.order = Arrays.copyOf(features, count);
+			this.firstShape = shapes;
+			this.firstExit = exit;
+		}
+
+		/* Method: add
+		 * -----------
+		 * Appends the features of the group whose weights are negative (or
+		 * positive) to order, and returns the new length.
+		 */
+		private int add(int[] order, int count, int[] group, boolean negative) {
+			for (int f : group) {
+				if (negative ? values[f] < 0 : values[f] > 0) order[count++] = f;
+			}
+			return count;
+		}
+	}
+
+	private volatile Weights weights;
+
+	// Features added up and placements played, over all ratings
+	private final LongAdder featuresRated = new LongAdder();
+	private final LongAdder placementsPlayed = new LongAdder();
+
+	/* Constructor: FeatureEvaluator
+	 * -----------------------------
+	 * Creates an evaluator with the default weights.
+	 */
+	public FeatureEvaluator() {
+		this(getDefaultWeights());
+	}
+
+	/* Constructor: FeatureEvaluator
+	 * -----------------------------
+	 * Creates an evaluator with the given weights, indexed by feature.
+	 */
+	public FeatureEvaluator(double[] weights) {
+		setWeights(weights);
+	}
+
+	/* Method: getDefaultWeights
+	 * -------------------------
+	 * Returns the weights of DefaultBrain's scoring: 8 per row of max height,
+	 * 40 per row of average height and 1.25 per hole.
+	 */
+	public static double[] getDefaultWeights() {
+		double[] w = new double[FEATURE_COUNT];
+		w[MAX_HEIGHT] = 8;
+		w[AVERAGE_HEIGHT] = 40;
+		w[HOLES] = 1.25;
+		return w;
+	}
+
+	/* Method: getFeatureName
+	 * ----------------------
+	 * Returns the name of the feature with the given index, as used in weights text.
+	 */
+	public static String getFeatureName(int feature) {
+		return NAMES[feature];
+	}
+
+	/* Method: setWeights
+	 * ------------------
+	 * Replaces the weights with a copy of the given ones, indexed by feature.
+	 */
+	public void setWeights(double[] values) {
+		weights = new Weights(values);
+	}
+
+	/* Method: getWeights
+	 * ------------------
+	 * Returns a copy of the current weights, indexed by feature.
+	 */
+	public double[] getWeights() {
+		return weights.values.clone();
+	}
+
+	/* Method: cacheKey
+	 * ----------------
+	 * Turns the key of the board a placement leads to into a key for its
+	 * score with the current weights. If the weights rate the placement
+	 * itself, and not only the board, its features are mixed in too, since
+	 * different placements can lead to the same board. piece is the rotation
+	 * that is placed.
+	 */
+	public long cacheKey(long boardKey, Piece piece, int[] placements, int index) {
+		final Weights current = weights;
+		long key = boardKey ^ current.stamp;
+		if (current.movesRated) {
+			final int base = index * Board.EVAL_STRIDE;
+			long move = ((long)placements[base + Board.EVAL_Y] << 40) ^ ((long)piece.getHeight() << 32)
+					^ ((long)placements[base + Board.EVAL_ERODED] << 8) ^ placements[base + Board.EVAL_ROWS_CLEARED];
+			key ^= (move + 1) * 0xC2B2AE3D27D4EB4FL;
+			key = (key ^ (key >>> 29)) * 0xBF58476D1CE4E5B9L;
+		}
+		return key;
+	}
+
+	/* Method: readWeights
+	 * -------------------
+	 * Reads weights text and returns the weights, indexed by feature.
+	 */
+	public static double[] readWeights(Reader reader) throws IOException {
+		double[] values = new double[FEATURE_COUNT];
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			String[] parts = line.split("\\s+");
+			if (parts.length != 2) throw new RuntimeException("Bad weight line: " + line);
+			int feature = Arrays.asList(NAMES).indexOf(parts[0]);
+			if (feature < 0) throw new RuntimeException("Unknown feature: " + parts[0]);
+			try {
+				values[feature] = Double.parseDouble(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("Bad weight for " + parts[0] + ": " + parts[1]);
+			}
+		}
+		return values;
+	}
+
+	/* Method: writeWeights
+	 * --------------------
+	 * Writes the given weights as weights text, every feature named.
+	 */
+	public static void writeWeights(double[] values, Writer writer) throws IOException {
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			writer.write(NAMES[i] + " " + values[i] + "\n");
+		}
+		writer.flush();
+	}
+
+	/* Method: loadWeights
+	 * -------------------
+	 * Replaces the weights with the ones in the given file.
+	 */
+	public void loadWeights(String fileName) {
+		try (Reader in = new FileReader(fileName)) {
+			setWeights(readWeights(in));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read weights from " + fileName, e);
+		}
+	}
+
+	/* Method: rateBoard
+	 * -----------------
+	 * Rates the board as it is -- larger numbers for worse boards. There is
+	 * no placement, so the landing height, eroded cells and rows cleared are 0.
+	 */
+	public double rateBoard(Board board) {
+		return sum(weights, board, null, 0, 0, board.getMaxHeight(), board.getAggregateHeight(), board.getHoles(),
+				0, 0, 0, Double.POSITIVE_INFINITY);
+	}
+
+	/* Method: ratePlacement
+	 * ---------------------
+	 * Rates the board as it would be after the given placement of the piece,
+	 * one of the results of Board.evaluatePlacements(). If only features the
+	 * placement results give have weights, the board is not touched; otherwise
+	 * the placement is played and undone, so the board must be committed.
+	 */
+	public double ratePlacement(Board board, Piece piece, int[] placements, int index) {
+		return ratePlacement(board, piece, placements, index, Double.POSITIVE_INFINITY);
+	}
+
+	/* Method: ratePlacement
+	 * ---------------------
+	 * As above, but stops adding up features once the score is sure to end
+	 * up above bound, and returns the score so far, which is above bound.
+	 * A score at or below bound is always the full one. The placement is not
+	 * played at all if the features the placement results give are enough.
+	 */
+	public double ratePlacement(Board board, Piece piece, int[] placements, int index, double bound) {
+		final int base = index * Board.EVAL_STRIDE;
+		for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+
+		final int y = placements[base + Board.EVAL_Y];
+		return sum(weights, board, piece, placements[base + Board.EVAL_X], y,
+				placements[base + Board.EVAL_MAX_HEIGHT],
+				board.getAggregateHeight() + placements[base + Board.EVAL_HEIGHT_DELTA],
+				board.getHoles() + placements[base + Board.EVAL_HOLES_DELTA],
+				y + (piece.getHeight() - 1) / 2.0, placements[base + Board.EVAL_ERODED],
+				placements[base + Board.EVAL_ROWS_CLEARED], bound);
+	}
+
+	/* Method: getFeaturesRated
+	 * ------------------------
+	 * Returns the number of weighted features added up by all ratings so far.
+	 */
+	public long getFeaturesRated() {
+		return featuresRated.sum();
+	}
+
+	/* Method: getPlacementsPlayed
+	 * ---------------------------
+	 * Returns the number of placements played on the board to rate them so far.
+	 */
+	public long getPlacementsPlayed() {
+		return placementsPlayed.sum();
+	}
+
+	/* Method: resetCounters
+	 * ---------------------
+	 * Zeroes the counts of features rated and placements played.
+	 */
+	public void resetCounters() {
+		featuresRated.reset();
+		placementsPlayed.reset();
+	}
+
+	/* Method: getFeatures
+	 * -------------------
+	 * Fills out, indexed by feature, with the features of the board as it
+	 * would be after the given placement. As ratePlacement(), but all features
+	 * are filled in whatever their weights, so the board is always played on.
+	 */
+	public static void getFeatures(Board board, Piece piece, int[] placements, int index, double[] out) {
+		final int base = index * Board.EVAL_STRIDE;
+		for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+		final int y = placements[base + Board.EVAL_Y];
+		if (board.place(piece, placements[base + Board.EVAL_X], y) > Board.PLACE_ROW_FILLED) {
+			throw new RuntimeException("Placement does not fit the board");
+		}
+		board.clearRows();
+		getFeatures(board, out);
+		board.undo();
+		out[LANDING_HEIGHT] = y + (piece.getHeight() - 1) / 2.0;
+		out[ERODED_CELLS] = placements[base + Board.EVAL_ERODED];
+		out[ROWS_CLEARED] = placements[base + Board.EVAL_ROWS_CLEARED];
+	}
+
+	/* Method: getFeatures
+	 * -------------------
+	 * Fills out, indexed by feature, with the features of the board as it is.
+	 */
+	public static void getFeatures(Board board, double[] out) {
+		out[AGGREGATE_HEIGHT] = board.getAggregateHeight();
+		out[HOLES] = board.getHoles();
+		out[COVERED_CELLS] = board.getCoveredCells();
+		out[BUMPINESS] = board.getBumpiness();
+		out[ROW_TRANSITIONS] = board.getRowTransitions();
+		out[COLUMN_TRANSITIONS] = board.getColumnTransitions();
+		out[WELLS] = board.getWells();
+		out[MAX_HEIGHT] = board.getMaxHeight();
+		out[AVERAGE_HEIGHT] = ((double)board.getAggregateHeight()) / board.getWidth();
+		out[LANDING_HEIGHT] = 0;
+		out[ERODED_CELLS] = 0;
+		out[ROWS_CLEARED] = 0;
+	}
+
+	/* Method: sum
+	 * -------------
+	 * Adds up the weighted features in the weights' order, stopping once the
+	 * sum is above bound and can only grow. Max height, average height and
+	 * holes go first, in that order, so the default weights give DefaultBrain's
+	 * scores to the last bit. With a piece, the board is as it was before the
+	 * piece was placed at (x, y), and is played on for the features only the
+	 * board gives; with none, the board is rated as it is.
+	 */
+	private double sum(Weights current, Board board, Piece piece, int x, int y, int maxHeight, int sumHeight, int holes,
+			double landingHeight, int eroded, int rowsCleared, double bound) {
+		final int[] order = current.order;
+		final double[] w = current.values;
+		boolean played = false;
+		double score = 0;
+		int k = 0;
+		for (; k < order.length; k++) {
+			// all features left have weights >= 0, and all features are >= 0
+			if (k >= current.firstExit && score > bound) break;
+
+			if (k == current.firstShape && piece != null) {
+				if (board.place(piece, x, y) > Board.PLACE_ROW_FILLED) {
+					board.undo();
+					throw new RuntimeException("Placement does not fit the board");
+				}
+				board.clearRows();
+				played = true;
+			}
+			final int f = order[k];
+			score += w[f] * feature(f, board, maxHeight, sumHeight, holes, landingHeight, eroded, rowsCleared);
+		}
+		if (played) {
+			board.undo();
+			placementsPlayed.increment();
+		}
+		featuresRated.add(k);
+		return score;
+	}
+
+	/* Method: feature
+	 * ---------------
+	 * Returns the value of one feature: the ones the placement results give
+	 * from the arguments, the others from the board.
+	 */
+	private static double feature(int f, Board board, int maxHeight, int sumHeight, int holes,
+			double landingHeight, int eroded, int rowsCleared) {
+		switch (f) {
+			case MAX_HEIGHT: return maxHeight;
+			case AVERAGE_HEIGHT: return ((double)sumHeight) / board.getWidth();
+			case HOLES: return holes;
+			case AGGREGATE_HEIGHT: return sumHeight;
+			case LANDING_HEIGHT: return landingHeight;
+			case ERODED_CELLS: return eroded;
+			case ROWS_CLEARED: return rowsCleared;
+			case COVERED_CELLS: return board.getCoveredCells();
+			case BUMPINESS: return board.getBumpiness();
+			case ROW_TRANSITIONS: return board.getRowTransitions();
+			case COLUMN_TRANSITIONS: return board.getColumnTransitions();
+			default: return board.getWells();
+		}
+	}
+}
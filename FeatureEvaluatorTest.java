@@ -0,0 +1,158 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.*;
+
+public class FeatureEvaluatorTest {
+	private Board board;
+	private Piece[] pieces;
+	private int[] placements;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+		board = new Board(10, 20);
+		placements = new int[Board.EVAL_STRIDE * 4 * board.getWidth()];
+
+		// a few garbage rows, then some pieces dropped on top
+		Random random = new Random(19);
+		for (int i = 0; i < 4; i++) {
+			board.addGarbage(1, random.nextInt(board.getWidth()));
+			board.commit();
+		}
+		for (int i = 0; i < 6; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+			board.place(piece, x, board.dropHeight(piece, x));
+			board.clearRows();
+			board.commit();
+		}
+	}
+
+	// The default weights give DefaultBrain's scores exactly
+	@Test
+	public void testDefaultWeights() {
+		DefaultBrain brain = new DefaultBrain();
+		FeatureEvaluator evaluator = new FeatureEvaluator();
+		assertEquals(brain.rateBoard(board), evaluator.rateBoard(board), 0);
+		for (Piece piece : pieces) {
+			int count = board.evaluatePlacements(piece, 16, placements);
+			for (int i = 0; i < count; i++) {
+				assertEquals(brain.ratePlacement(board, placements, i), evaluator.ratePlacement(board, piece, placements, i), 0);
+			}
+		}
+	}
+
+	// Rating a placement gives the weighted features of the board it leads to, and leaves the board as it was
+	@Test
+	public void testRatePlacement() {
+		double[] weights = new double[FeatureEvaluator.FEATURE_COUNT];
+		for (int i = 0; i < weights.length; i++) weights[i] = i + 0.5;
+		FeatureEvaluator evaluator = new FeatureEvaluator(weights);
+		double[] features = new double[FeatureEvaluator.FEATURE_COUNT];
+		long hash = board.getZobristHash();
+
+		Piece piece = pieces[2];
+		int count = board.evaluatePlacements(piece, 16, placements);
+		assertTrue(count > 0);
+		for (int i = 0; i < count; i++) {
+			FeatureEvaluator.getFeatures(board, piece, placements, i, features);
+			double expected = 0;
+			for (int f = 0; f < features.length; f++) expected += weights[f] * features[f];
+			assertEquals(expected, evaluator.ratePlacement(board, piece, placements, i), 1e-9);
+		}
+		assertEquals(hash, board.getZobristHash());
+
+		FeatureEvaluator.getFeatures(board, features);
+		assertEquals(board.getBumpiness(), features[FeatureEvaluator.BUMPINESS], 0);
+		assertEquals(0, features[FeatureEvaluator.LANDING_HEIGHT], 0);
+	}
+
+	// Weights go through text and back, and replace the ones in use
+	@Test
+	public void testReadWrite() throws IOException {
+		double[] weights = FeatureEvaluator.readWeights(new StringReader("# tuned\n\nholes 3.5\nwells -1\n"));
+		assertEquals(3.5, weights[FeatureEvaluator.HOLES], 0);
+		assertEquals(-1, weights[FeatureEvaluator.WELLS], 0);
+		assertEquals(0, weights[FeatureEvaluator.MAX_HEIGHT], 0);
+
+		StringWriter text = new StringWriter();
+		FeatureEvaluator.writeWeights(weights, text);
+		assertArrayEquals(weights, FeatureEvaluator.readWeights(new StringReader(text.toString())), 0);
+
+		FeatureEvaluator evaluator = new FeatureEvaluator();
+		evaluator.setWeights(weights);
+		assertEquals(3.5 * board.getHoles() - board.getWells(), evaluator.rateBoard(board), 1e-9);
+
+		try {
+			FeatureEvaluator.readWeights(new StringReader("height 1\n"));
+			fail("Unknown feature accepted");
+		} catch (RuntimeException e) {
+		}
+	}
+
+	// A bounded rating is the full score at or below the bound, and above the bound otherwise
+	@Test
+	public void testBounded() {
+		double[] weights = new double[FeatureEvaluator.FEATURE_COUNT];
+		weights[FeatureEvaluator.HOLES] = 4;
+		weights[FeatureEvaluator.ERODED_CELLS] = -1;
+		weights[FeatureEvaluator.BUMPINESS] = 1;
+		weights[FeatureEvaluator.WELLS] = -0.5;
+		FeatureEvaluator evaluator = new FeatureEvaluator(weights);
+
+		for (Piece piece : pieces) {
+			int count = board.evaluatePlacements(piece, 16, placements);
+			for (int i = 0; i < count; i++) {
+				double full = evaluator.ratePlacement(board, piece, placements, i);
+				for (double bound = full - 10; bound <= full + 10; bound += 2.5) {
+					double score = evaluator.ratePlacement(board, piece, placements, i, bound);
+					if (full <= bound) assertEquals(full, score, 0);
+					else assertTrue(score > bound);
+				}
+			}
+		}
+	}
+
+	// Bounded rating chooses the same moves as rating every feature, with fewer features
+	@Test
+	public void testBoundedBrain() throws IOException {
+		FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.readWeights(new StringReader(
+				"landing_height 1\neroded_cells -1\nrow_transitions 1\ncolumn_transitions 1\nholes 4\nwells 1\n")));
+		DefaultBrain exhaustive = new DefaultBrain();
+		exhaustive.setEvaluator(evaluator);
+		exhaustive.setBounded(false);
+		DefaultBrain bounded = new DefaultBrain();
+		bounded.setEvaluator(evaluator);
+
+		long exhaustiveFeatures = 0;
+		long boundedFeatures = 0;
+		Random random = new Random(20);
+		for (int n = 0; n < 200; n++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			evaluator.resetCounters();
+			Brain.Move a = exhaustive.bestMove(board, piece, 16, null);
+			exhaustiveFeatures += evaluator.getFeaturesRated();
+			evaluator.resetCounters();
+			Brain.Move b = bounded.bestMove(board, piece, 16, null);
+			boundedFeatures += evaluator.getFeaturesRated();
+			if (a == null) {
+				assertNull(b);
+				break;
+			}
+			assertEquals(a.x, b.x);
+			assertEquals(a.y, b.y);
+			assertSame(a.piece, b.piece);
+			assertEquals(a.score, b.score, 0);
+
+			board.place(a.piece, a.x, a.y);
+			board.clearRows();
+			board.commit();
+		}
+		assertTrue(boundedFeatures < exhaustiveFeatures);
+	}
+}
@@ -0,0 +1,515 @@
+/* Class: GameEngine.java
+ * ----------------------
+ * The rules of the game, with no GUI: the falling piece, the verbs that
+ * move it, landing, row clearing and scoring, the preview queue and game
+ * over. JTetris draws a GameEngine and feeds it ticks from its timer and
+ * keys; anything else can feed it ticks just as well, with no display,
+ * and gets exactly the same game for the same pieces.
+ *
+ * The GUI follows the game through the protected hook methods, which do
+ * nothing here: pieceMoved(), rowsFilled(), rowsCleared(), countersChanged(),
+ * previewChanged() and gameStopped(). pickNextPiece() can be overridden
+ * to choose the pieces some other way than at random.
+ *
+ * Notes:
+ * -The current piece is in the board, uncommitted, while it falls;
+ * tick() takes it out with Board.undo() and places it again where the verb
+ * moves it.
+ * -A piece has landed when a DOWN fails and the verb before was also
+ * DOWN (or failed), i.e. the player was not still moving it.
+ * -Clearing 1-4 rows scores 5, 10, 20, 40 points, more rows 50, and
+ * every piece played scores 1.
+ */
+package tetris;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+public class GameEngine {
+	// The verbs tick() takes
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	// The number of pieces in the preview, unless setPreviewSize() says otherwise
+	public static final int PREVIEW_SIZE = 3;
+
+	// Size of the board: pieces must land within the lower height rows,
+	// and start in the topSpace rows above them
+	private final int width;
+	private final int height;
+	private final int topSpace;
+
+	private Board board;
+	private Piece[] pieces;
+	private final ArrayDeque<Piece> preview = new ArrayDeque<Piece>();
+	private int previewSize = PREVIEW_SIZE;
+
+	// The current piece in play or null
+	private Piece currentPiece;
+	private int currentX;
+	private int currentY;
+	private boolean moved;		// did the player move the piece
+
+	// The position computeNewPosition() found for the current piece
+	private Piece newPiece;
+	private int newX;
+	private int newY;
+
+	// State of the game
+	private boolean gameOn;		// true if we are playing
+	private int count;			// how many pieces played so far
+	private int score;
+	private int pieceLimit;		// the game stops after this many pieces, or never if 0
+	private Random random;		// the random generator for new pieces
+	private int games;			// how many games have been started
+
+	/* Constructor: GameEngine
+	 * -----------------------
+	 * Creates an engine for a board width blocks wide, where pieces must land
+	 * in the lower height rows and start in topSpace rows above them. The
+	 * pieces are the standard ones.
+	 */
+	public GameEngine(int width, int height, int topSpace) {
+		this.width = width;
+		this.height = height;
+		this.topSpace = topSpace;
+		pieces = Piece.getPieces();
+		board = new Board(width, height + topSpace);
+	}
+
+	/* Method: setPieces
+	 * -----------------
+	 * Sets the pieces pickNextPiece() chooses from, for the next game.
+	 */
+	public void setPieces(Piece[] pieces) {
+		if (pieces.length == 0) throw new RuntimeException("No pieces to play with");
+		this.pieces = pieces.clone();
+	}
+
+	/* Method: setPreviewSize
+	 * ----------------------
+	 * Sets how many pieces are picked ahead of the one in play. With 0,
+	 * pickNextPiece() is called just as each piece comes into play, with the
+	 * board it will land on in getBoard(), which a pickNextPiece() that looks
+	 * at the board needs; with more, it sees the board some pieces earlier.
+	 * Pieces already picked beyond the new size are dropped.
+	 */
+	public void setPreviewSize(int previewSize) {
+		if (previewSize < 0) throw new RuntimeException("Negative preview size");
+		this.previewSize = previewSize;
+		if (preview.size() > previewSize) {
+			while (preview.size() > previewSize) preview.removeLast();
+			previewChanged();
+		}
+	}
+
+	/* Method: getPreviewSize
+	 * ----------------------
+	 * Returns how many pieces are picked ahead of the one in play.
+	 */
+	public int getPreviewSize() {
+		return previewSize;
+	}
+
+	/* Method: startGame
+	 * -----------------
+	 * Starts a game on an empty board, with pieces chosen with the given
+	 * random generator. With pieceLimit > 0, the game stops after that
+	 * many pieces.
+	 */
+	public void startGame(Random random, int pieceLimit) {
+		// the board is reused from game to game
+		board.clear();
+
+		count = 0;
+		score = 0;
+		this.pieceLimit = pieceLimit;
+		this.random = random;
+		preview.clear();
+		currentPiece = null;
+		moved = false;
+		gameOn = true;
+		games++;
+		countersChanged();
+
+		addNewPiece();
+	}
+
+	/* Method: stopGame
+	 * ----------------
+	 * Stops the game.
+	 */
+	public void stopGame() {
+		gameOn = false;
+		gameStopped();
+	}
+
+	/* Method: setCurrent
+	 * ------------------
+	 * Given a piece, tries to install that piece
+	 * into the board and set it to be the current piece.
+	 * If the placement is not possible, then the placement
+	 * is undone, and the board is not changed. The board
+	 * should be in the committed state when this is called.
+	 * Returns the same error code as Board.place().
+	 */
+	public int setCurrent(Piece piece, int x, int y) {
+		int result = board.place(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			Piece oldPiece = currentPiece;
+			int oldX = currentX;
+			int oldY = currentY;
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+			pieceMoved(oldPiece, oldX, oldY);
+		}
+		else {
+			board.undo();
+		}
+
+		return(result);
+	}
+
+	/* Method: pickNextPiece
+	 * ---------------------
+	 * Selects the next piece to add to the preview. By default, this is
+	 * randomPiece().
+	 */
+	protected Piece pickNextPiece() {
+		return randomPiece();
+	}
+
+	/* Method: randomPiece
+	 * -------------------
+	 * Selects a piece using the random generator set in startGame().
+	 */
+	public final Piece randomPiece() {
+		int pieceNum = (int) (pieces.length * random.nextDouble());
+		return(pieces[pieceNum]);
+	}
+
+	/* Method: nextPiece
+	 * -----------------
+	 * Takes the next piece off the front of the preview queue, topping the
+	 * queue back up to getPreviewSize() pieces with pickNextPiece().
+	 */
+	public Piece nextPiece() {
+		while (preview.size() <= previewSize) preview.addLast(pickNextPiece());
+		return preview.removeFirst();
+	}
+
+	/* Method: addNewPiece
+	 * -------------------
+	 * Tries to add a new piece at the top of the board.
+	 * Ends the game if it's not possible.
+	 */
+	public void addNewPiece() {
+		count++;
+		score++;
+
+		if (pieceLimit > 0 && count == pieceLimit+1) {
+			stopGame();
+			return;
+		}
+
+		// commit things the way they are
+		board.commit();
+		currentPiece = null;
+
+		Piece piece = nextPiece();
+		previewChanged();	// the preview has moved up
+
+		// Center it up at the top
+		int px = (board.getWidth() - piece.getWidth())/2;
+		int py = board.getHeight() - piece.getHeight();
+
+		// add the new piece to be in play
+		int result = setCurrent(piece, px, py);
+
+		// This probably never happens, since
+		// the blocks at the top allow space
+		// for new pieces to at least be added.
+		if (result>Board.PLACE_ROW_FILLED) {
+			stopGame();
+		}
+
+		countersChanged();
+	}
+
+	/* Method: computeNewPosition
+	 * --------------------------
+	 * Figures a new position for the current piece
+	 * based on the given verb (LEFT, RIGHT, ...).
+	 * The board should be in the committed state --
+	 * i.e. the piece should not be in the board at the moment.
+	 * This is necessary so dropHeight() may be called without
+	 * the piece "hitting itself" on the way down.
+	 *
+	 * Sets newX, newY, and newPiece to hold
+	 * what it thinks the new piece position should be.
+	 */
+	private void computeNewPosition(int verb) {
+		// As a starting point, the new position is the same as the old
+		newPiece = currentPiece;
+		newX = currentX;
+		newY = currentY;
+
+		// Make changes based on the verb
+		switch (verb) {
+			case LEFT: newX--; break;
+
+			case RIGHT: newX++; break;
+
+			case ROTATE:
+				newPiece = newPiece.fastRotation();
+
+				// tricky: make the piece appear to rotate about its center
+				// can't just leave it at the same lower-left origin as the
+				// previous piece.
+				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+				break;
+
+			case DOWN: newY--; break;
+
+			case DROP:
+				newY = board.dropHeight(newPiece, newX);
+
+				// trick: avoid the case where the drop would cause
+				// the piece to appear to move up
+				if (newY > currentY) {
+					newY = currentY;
+				}
+				break;
+
+			default:
+				throw new RuntimeException("Bad verb");
+		}
+	}
+
+	/* Method: tick
+	 * ------------
+	 * Changes the position of the current piece by the given verb:
+	 * LEFT RIGHT ROTATE DROP for the user moves, and DOWN to move the
+	 * piece down one square, as the timer does. A piece that lands is
+	 * committed, full rows are cleared and scored, and the next piece is
+	 * added, or the game ends if the board is too tall.
+	 */
+	public void tick(int verb) {
+		if (!gameOn) return;
+
+		if (currentPiece != null) {
+			board.undo();	// remove the piece from its old position
+		}
+
+		// Sets newPiece, newX and newY
+		computeNewPosition(verb);
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(newPiece, newX, newY);
+
+		// row clearing is going to happen
+		if (result == Board.PLACE_ROW_FILLED) {
+			rowsFilled();
+		}
+
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+		// if it didn't work, put it back the way it was
+		if (failed) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+			pieceMoved(currentPiece, currentX, currentY);
+		}
+
+		/*
+		 How to detect when a piece has landed:
+		 if this move hits something on its DOWN verb,
+		 and the previous verb was also DOWN (i.e. the player was not
+		 still moving it),	then the previous position must be the correct
+		 "landed" position, so we're done with the falling of this piece.
+		*/
+		if (failed && verb==DOWN && !moved) {	// it's landed
+
+			int cleared = board.clearRows();
+			if (cleared > 0) {
+				// score goes up by 5, 10, 20, 40 for row clearing
+				switch (cleared) {
+					case 1: score += 5;	 break;
+					case 2: score += 10;  break;
+					case 3: score += 20;  break;
+					case 4: score += 40;  break;
+					default: score += 50;  // could happen with non-standard pieces
+				}
+				countersChanged();
+				rowsCleared(cleared);
+			}
+
+			// if the board is too tall, we've lost
+			if (board.getMaxHeight() > height) {
+				stopGame();
+			}
+			// Otherwise add a new piece and keep playing
+			else {
+				addNewPiece();
+			}
+		}
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next tick()
+		moved = (!failed && verb!=DOWN);
+	}
+
+	/* Method: pieceMoved
+	 * ------------------
+	 * Called when the current piece has been put in the board, at a new
+	 * position or back at its old one, given the area it took before
+	 * (oldPiece is null for a new piece).
+	 */
+	protected void pieceMoved(Piece oldPiece, int oldX, int oldY) {
+	}
+
+	/* Method: rowsFilled
+	 * ------------------
+	 * Called when the current piece fills a row, which will be cleared
+	 * if the piece lands there.
+	 */
+	protected void rowsFilled() {
+	}
+
+	/* Method: rowsCleared
+	 * -------------------
+	 * Called after a landed piece has cleared rows and they are scored.
+	 */
+	protected void rowsCleared(int cleared) {
+	}
+
+	/* Method: countersChanged
+	 * -----------------------
+	 * Called when the count or score may have changed.
+	 */
+	protected void countersChanged() {
+	}
+
+	/* Method: previewChanged
+	 * ----------------------
+	 * Called when a piece has been taken off the preview.
+	 */
+	protected void previewChanged() {
+	}
+
+	/* Method: gameStopped
+	 * -------------------
+	 * Called when the game ends, or is stopped.
+	 */
+	protected void gameStopped() {
+	}
+
+	/* Method: getBoard
+	 * ----------------
+	 * Returns the board. Its current piece, if any, is placed but not committed.
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+	/* Method: getPieces
+	 * -----------------
+	 * Returns the pieces pickNextPiece() chooses from.
+	 */
+	public Piece[] getPieces() {
+		return pieces.clone();
+	}
+
+	/* Method: getPreview
+	 * ------------------
+	 * Returns the pieces that will be played after the current one, in order.
+	 */
+	public Piece[] getPreview() {
+		return preview.toArray(new Piece[0]);
+	}
+
+	/* Method: getPreviewPieces
+	 * ------------------------
+	 * Returns the preview itself, for drawing it without a copy.
+	 */
+	public Iterable<Piece> getPreviewPieces() {
+		return preview;
+	}
+
+	/* Method: getCurrentPiece
+	 * -----------------------
+	 * Returns the piece in play, or null.
+	 */
+	public Piece getCurrentPiece() {
+		return currentPiece;
+	}
+
+	/* Method: getCurrentX
+	 * -------------------
+	 * Returns the x of the piece in play.
+	 */
+	public int getCurrentX() {
+		return currentX;
+	}
+
+	/* Method: getCurrentY
+	 * -------------------
+	 * Returns the y of the piece in play.
+	 */
+	public int getCurrentY() {
+		return currentY;
+	}
+
+	/* Method: getCount
+	 * ----------------
+	 * Returns the number of pieces played so far, counting the one in play.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/* Method: getScore
+	 * ----------------
+	 * Returns the score so far.
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/* Method: getGames
+	 * ----------------
+	 * Returns the number of games started.
+	 */
+	public int getGames() {
+		return games;
+	}
+
+	/* Method: isGameOn
+	 * ----------------
+	 * Returns true while a game is being played.
+	 */
+	public boolean isGameOn() {
+		return gameOn;
+	}
+
+	/* Method: getLimitHeight
+	 * ----------------------
+	 * Returns the height pieces must land within.
+	 */
+	public int getLimitHeight() {
+		return height;
+	}
+
+	/* Method: getTopSpace
+	 * -------------------
+	 * Returns the number of rows above the limit height that pieces start in.
+	 */
+	public int getTopSpace() {
+		return topSpace;
+	}
+}
@@ -0,0 +1,104 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+public class GameEngineTest {
+	private Piece flatStick;
+
+	@Before
+	public void setUp() throws Exception {
+		flatStick = Piece.getPieces()[Piece.STICK];
+		if (flatStick.getWidth() != 4) flatStick = flatStick.fastRotation();
+	}
+
+	// A dropped piece lands on the DOWN after the next one, clears its row and scores
+	@Test
+	public void testLanding() {
+		GameEngine engine = new GameEngine(4, 8, 4);
+		engine.setPieces(new Piece[] { flatStick });
+		engine.startGame(new Random(1), 0);
+		assertEquals(1, engine.getCount());
+		assertEquals(1, engine.getScore());
+		assertEquals(8 + 4 - 1, engine.getCurrentY());
+
+		engine.tick(GameEngine.DROP);
+		assertEquals(0, engine.getCurrentY());
+		engine.tick(GameEngine.DOWN);	// the player moved it, so it has not landed
+		assertEquals(1, engine.getCount());
+		engine.tick(GameEngine.DOWN);
+		assertEquals(2, engine.getCount());
+		assertEquals(1 + 1 + 5, engine.getScore());
+		assertFalse(engine.getBoard().getGrid(0, 0));	// the row is gone; the next piece is at the top
+		assertTrue(engine.isGameOn());
+	}
+
+	// The game stops after the piece limit, and when the board gets too tall
+	@Test
+	public void testGameOver() {
+		GameEngine engine = new GameEngine(10, 4, 4);
+		engine.startGame(new Random(2), 3);
+		while (engine.isGameOn()) engine.tick(GameEngine.DOWN);
+		assertTrue(engine.getCount() <= 4);
+		assertTrue(engine.getCount() == 4 || engine.getBoard().getMaxHeight() > 4);
+
+		engine.startGame(new Random(2), 0);
+		int ticks = 0;
+		while (engine.isGameOn()) {
+			engine.tick(GameEngine.DOWN);
+			ticks++;
+		}
+		assertTrue(ticks < 1000);
+		assertTrue(engine.getBoard().getMaxHeight() > 4);
+	}
+
+	// Pieces are picked ahead into the preview, or with no preview, each just as it comes
+	// into play, when the board holds every piece before it
+	@Test
+	public void testPickTiming() {
+		final List<Integer> heights = new ArrayList<Integer>();
+		GameEngine engine = new GameEngine(8, 8, 4) {
+			protected Piece pickNextPiece() {
+				heights.add(getBoard().getMaxHeight());
+				return flatStick;
+			}
+		};
+		engine.startGame(new Random(1), 0);
+		assertEquals(GameEngine.PREVIEW_SIZE + 1, heights.size());
+		assertEquals(GameEngine.PREVIEW_SIZE, engine.getPreview().length);
+
+		engine.setPreviewSize(0);
+		assertEquals(0, engine.getPreview().length);
+		heights.clear();
+		engine.startGame(new Random(1), 0);
+		for (int piece = 1; piece <= 3; piece++) {
+			assertEquals(piece, heights.size());
+			assertEquals(piece - 1, (int)heights.get(piece - 1));	// flat sticks stack one row each
+			engine.tick(GameEngine.DROP);
+			engine.tick(GameEngine.DOWN);
+			engine.tick(GameEngine.DOWN);
+		}
+		assertEquals(0, engine.getPreview().length);
+	}
+
+	// A brain game is the same for the same pieces, however often it is played
+	@Test
+	public void testBrainGame() {
+		GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, JTetris.TOP_SPACE);
+		BrainDriver driver = new BrainDriver(engine, new DefaultBrain());
+		long ticks = driver.playGame(new Random(0), 100);
+		int score = engine.getScore();
+		assertEquals(101, engine.getCount());
+		assertFalse(engine.isGameOn());
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals(ticks, new BrainDriver(engine, new DefaultBrain()).playGame(new Random(0), 100));
+			assertEquals(score, engine.getScore());
+		}
+	}
+}
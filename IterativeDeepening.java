@@ -0,0 +1,111 @@
+/* Class IterativeDeepening.java
+ * -----------------------------
+ * The deadline-aware bestMove() every Brain gets by default. It starts with
+ * the brain's own answer, so there is a move ready from the first moment,
+ * then deepens one preview piece at a time: at depth d, each placement of
+ * the current piece is followed by the brain's plain bestMove() for each of
+ * the next d-1 preview pieces in turn, and is worth the score of the last
+ * of those moves. A depth that finishes replaces the answer with its best
+ * placement; one cut short by the deadline or the token is thrown away.
+ *
+ * Only the brain's bestMove() and Move.score are used, so any brain fits.
+ * The scores compared at one depth all come from the same brain rating
+ * boards after the same number of pieces. Pieces are placed and backed out
+ * with Board.mark() and rollback(), so the search works on the caller's board.
+ */
+
+package tetris;
+
+final class IterativeDeepening {
+    // What a placement is worth if a later preview piece cannot be played
+    private static final double DEAD = 1e20;
+
+    // Each thread's placement buffer and move for the follow-up moves, made
+    // once and grown as boards get wider, so a decision allocates nothing
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private static class Scratch {
+        int[] placements = new int[0];
+        final Brain.Move reply = new Brain.Move();
+    }
+
+    private IterativeDeepening() {
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * See Brain.bestMove() with a deadline.
+	 */
+    static Brain.Move bestMove(Brain brain, Board board, Piece piece, Piece[] preview, int limitHeight,
+                               long deadline, CancellationToken token, Brain.Move move) {
+        move = brain.bestMove(board, piece, preview, limitHeight, move);
+        if (move == null || preview.length == 0 || CancellationToken.isExpired(deadline, token)) return(move);
+
+        final Scratch buffers = scratch.get();
+        final int needed = Board.EVAL_STRIDE * 4 * board.getWidth();
+        if (buffers.placements.length < needed) buffers.placements = new int[needed];
+        final int[] placements = buffers.placements;
+        final int count = board.evaluatePlacements(piece, limitHeight, placements);
+        final Brain.Move reply = buffers.reply;
+
+        for (int depth = 2; depth <= preview.length + 1; depth++) {
+            int best = -1;
+            double bestScore = DEAD;
+            for (int i = 0; i<count; i++) {
+                if (CancellationToken.isExpired(deadline, token)) return(move);
+                final double score = followUp(brain, board, piece, placements, i, preview, depth-1, limitHeight, reply);
+                if (score<bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            // a deeper search that only finds dead ends keeps the shallower choice
+            if (best >= 0) {
+                final int base = best * Board.EVAL_STRIDE;
+                Piece bestPiece = piece;
+                for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) bestPiece = bestPiece.fastRotation();
+                move.x = placements[base + Board.EVAL_X];
+                move.y = placements[base + Board.EVAL_Y];
+                move.piece = bestPiece;
+                move.score = bestScore;
+            }
+        }
+        return(move);
+    }
+
+    /* Method: followUp
+     * ----------------
+     * Plays one placement of the piece, then the brain's moves for the first
+     * pieces of the preview, and returns the score of the last move, or DEAD
+     * if one of them cannot be played. The board is left as it was found.
+     */
+    private static double followUp(Brain brain, Board board, Piece piece, int[] placements, int index,
+                                   Piece[] preview, int pieces, int limitHeight, Brain.Move reply) {
+        final int mark = board.mark();
+        final int base = index * Board.EVAL_STRIDE;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+        placeAndClear(board, piece, placements[base + Board.EVAL_X], placements[base + Board.EVAL_Y]);
+
+        double score = DEAD;
+        for (int k = 0; k<pieces; k++) {
+            final Brain.Move next = brain.bestMove(board, preview[k], limitHeight, reply);
+            if (next == null) break;
+            if (k == pieces-1) score = next.score;
+            else placeAndClear(board, next.piece, next.x, next.y);
+        }
+        board.rollback(mark);
+        board.release(mark);
+        return score;
+    }
+
+    /* Method: placeAndClear
+     * ---------------------
+     * Plays the piece at (x, y) on the board.
+     */
+    private static void placeAndClear(Board board, Piece piece, int x, int y) {
+        if (board.place(piece, x, y) > Board.PLACE_ROW_FILLED) throw new RuntimeException("Deepening placement failed");
+        board.clearRows();
+        board.commit();
+    }
+}
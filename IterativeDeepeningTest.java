@@ -0,0 +1,105 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class IterativeDeepeningTest {
+	private Piece[] pieces;
+	private Board board;
+	private Piece[] preview;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+		board = new Board(10, 24);
+		Random random = new Random(31);
+		for (int i = 0; i < 8; i++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+			board.place(piece, x, board.dropHeight(piece, x));
+			board.clearRows();
+			board.commit();
+		}
+		preview = new Piece[] { pieces[2], pieces[5], pieces[1] };
+	}
+
+	// A brain that counts its moves, and cancels the token on the given one
+	private static class CountingBrain extends DefaultBrain {
+		int calls;
+		int cancelAt;
+		CancellationToken token;
+
+		public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+			calls++;
+			if (calls == cancelAt) token.cancel();
+			return super.bestMove(board, piece, limitHeight, move);
+		}
+	}
+
+	// Asserts that the move is the same as the brain's own
+	private void assertPlainMove(Brain brain, Brain.Move move) {
+		Brain.Move plain = brain.bestMove(board, pieces[0], preview, 20, null);
+		assertEquals(plain.piece, move.piece);
+		assertEquals(plain.x, move.x);
+		assertEquals(plain.y, move.y);
+	}
+
+	// The token can be cancelled, and a deadline passes
+	@Test
+	public void testCancellationToken() {
+		CancellationToken token = new CancellationToken();
+		assertFalse(token.isCancelled());
+		assertFalse(CancellationToken.isExpired(Long.MAX_VALUE, token));
+		assertFalse(CancellationToken.isExpired(Long.MAX_VALUE, null));
+		assertTrue(CancellationToken.isExpired(System.nanoTime() - 1, null));
+		token.cancel();
+		assertTrue(token.isCancelled());
+		assertTrue(CancellationToken.isExpired(Long.MAX_VALUE, token));
+	}
+
+	// With no time or a cancelled token, the move is the brain's own
+	@Test
+	public void testNoTime() {
+		DefaultBrain brain = new DefaultBrain();
+		assertPlainMove(brain, brain.bestMove(board, pieces[0], preview, 20, System.nanoTime() - 1, null, null));
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		assertPlainMove(brain, brain.bestMove(board, pieces[0], preview, 20, Long.MAX_VALUE, token, null));
+	}
+
+	// Deepening all the way gives a legal move and leaves the board as it was
+	@Test
+	public void testDeepening() {
+		long hash = board.getZobristHash();
+		Brain.Move move = new DefaultBrain().bestMove(board, pieces[0], preview, 20, Long.MAX_VALUE, null, null);
+		assertNotNull(move);
+		assertEquals(hash, board.getZobristHash());
+		assertEquals(move.y, board.dropHeight(move.piece, move.x));
+		assertTrue(board.place(move.piece, move.x, move.y) <= Board.PLACE_ROW_FILLED);
+	}
+
+	// Cancelled in the middle of a search, the brain finishes at most the follow-up moves of the placement it is on
+	@Test
+	public void testCancelled() {
+		CountingBrain brain = new CountingBrain();
+		brain.token = new CancellationToken();
+		assertNotNull(brain.bestMove(board, pieces[0], preview, 20, Long.MAX_VALUE, brain.token, null));
+		final int total = brain.calls;
+
+		for (int cancelAt : new int[] { 1, 2, total / 3, total / 2, total - 1 }) {
+			brain.calls = 0;
+			brain.cancelAt = cancelAt;
+			brain.token = new CancellationToken();
+			long hash = board.getZobristHash();
+			Brain.Move move = brain.bestMove(board, pieces[0], preview, 20, Long.MAX_VALUE, brain.token, null);
+			assertNotNull(move);
+			assertEquals(hash, board.getZobristHash());
+			assertEquals(move.y, board.dropHeight(move.piece, move.x));
+			assertTrue(brain.calls + " calls after cancelling at " + cancelAt, brain.calls <= cancelAt + preview.length - 1);
+		}
+	}
+}
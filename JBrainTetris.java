@@ -19,13 +19,17 @@ public class JBrainTetris extends JTetris {
 	// GUI options
 	JPanel little;
 	JCheckBox brainMode;
+	JCheckBox lookaheadMode;
+	JCheckBox rolloutMode;
 	JSlider adversary;
 	JLabel adversaryLabel;
 	
 	DefaultBrain brain;
-	Brain.Move bestMove;
+	LookaheadBrain lookaheadBrain;
+	RolloutBrain rolloutBrain;
 	
-	private int curCount;
+	// Plays the engine with the brain, a timer tick at a time
+	private BrainDriver driver;
 	
 	/* Constructor: JBrainTetris
 	 * -------------------------
@@ -33,9 +37,31 @@ public class JBrainTetris extends JTetris {
 	 */
 	JBrainTetris(int pixels) {
 		super(pixels);
-		curCount = 0;
 		
 		brain = new DefaultBrain();
+		
+		// the current piece and the whole preview, with a tenth of a second per move at most
+		lookaheadBrain = new LookaheadBrain(PREVIEW_SIZE + 1, 8, 100);
+		
+		// each move gets a deadline from the time left until the next tick
+		rolloutBrain = new RolloutBrain();
+		
+		// both brains rate boards the same way, and the adversary rates the same boards for
+		// every piece type, so one cache serves them all
+		EvalCache cache = new EvalCache(8 << 20);
+		brain.setEvalCache(cache);
+		lookaheadBrain.setEvalCache(cache);
+		
+		// tuned weights, if given with -Dtetris.weights=file, replace the built-in scoring
+		String weightsFile = System.getProperty("tetris.weights");
+		if (weightsFile != null) {
+			FeatureEvaluator evaluator = new FeatureEvaluator();
+			evaluator.loadWeights(weightsFile);
+			brain.setEvaluator(evaluator);
+			lookaheadBrain.setEvaluator(evaluator);
+		}
+		
+		driver = new BrainDriver(engine, brain);
 	}
 	
 	/* Method: createControlPanel
@@ -49,12 +75,23 @@ public class JBrainTetris extends JTetris {
 		brainPanel.add(new JLabel("Brain: "));
 		brainMode = new JCheckBox("Brain active");
 		brainPanel.add(brainMode);
+		lookaheadMode = new JCheckBox("Look ahead");
+		brainPanel.add(lookaheadMode);
+		rolloutMode = new JCheckBox("Rollouts");
+		brainPanel.add(rolloutMode);
 		
 		little = new JPanel();
 		little.add(new JLabel("Adversary: "));
 		adversary = new JSlider(0, 100, 0);
 		adversary.setPreferredSize(new Dimension(100, 15));
 		adversaryLabel = new JLabel("ok");
+		// the adversary judges each piece against the board it will land on, so while
+		// it plays, pieces are picked as they come into play rather than ahead in the preview
+		adversary.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				engine.setPreviewSize(adversary.getValue() > 0 ? 0 : PREVIEW_SIZE);
+			}
+		});
 		little.add(adversary);
 		little.add(adversaryLabel);
 		brainPanel.add(little);
@@ -84,25 +121,17 @@ public class JBrainTetris extends JTetris {
 	@Override
 	public void tick(int verb) {
 		if (brainMode.isSelected() && verb == DOWN) {	// play a brain tick
-			board.undo();
-			if (curCount != count) {
-				curCount = count;
-				bestMove = brain.bestMove(board, currentPiece, HEIGHT, null);
-			}
-			
-			if (bestMove != null) {
-				if(!currentPiece.equals(bestMove.piece)) {
-					super.tick(ROTATE);
-				}
-			
-				if (bestMove.x < currentX) {
-					super.tick(LEFT);
-				} else if (bestMove.x > currentX){
-					super.tick(RIGHT);
-				}
+			if (rolloutMode.isSelected() || lookaheadMode.isSelected()) {
+				// a brain tick comes from the timer, so the next one is a timer delay away;
+				// the searching brains must move in three quarters of that, leaving time to play it
+				driver.setBrain(rolloutMode.isSelected() ? rolloutBrain : lookaheadBrain);
+				driver.setBudget(timer.getDelay() * 3 / 4);
+			} else {
+				// the plain brain plays its own move, untimed, as it does headless
+				driver.setBrain(brain);
+				driver.setBudget(0);
 			}
-			// the piece must move down following any rotation and/or left/right move
-			super.tick(DOWN);
+			driver.tick();
 		} else {	// play a standard tick
 			super.tick(verb);
 		}
@@ -130,8 +159,8 @@ public class JBrainTetris extends JTetris {
 			double worstScore = 0;
 			
 			// iterate through the pieces to find the worst piece
-			for(Piece p : super.pieces) {
-				Brain.Move currMove = brain.bestMove(board, p, HEIGHT, null);
+			for(Piece p : engine.getPieces()) {
+				Brain.Move currMove = brain.bestMove(engine.getBoard(), p, HEIGHT, null);
 				// if no bestMove is found, default to the super's pick piece
 				if (currMove == null) return super.pickNextPiece();
 				if (currMove.score > worstScore) {
@@ -1,8 +1,9 @@
 /* Class: JTetris
  * --------------
  * JTetris presents a tetris game in a window. It handles the GUI 
- * and the animation. The Piece and Board classes handle the lower-level 
- * computations.
+ * and the animation. The rules of the game are in GameEngine, which
+ * JTetris drives with its timer and keys and draws; the Piece and Board
+ * classes handle the lower-level computations.
  * 
  * Use Keys j-k-l to move, n to drop (or 4-5-6 0)
  * During animation, filled rows draw as green.
@@ -10,14 +11,11 @@
  * Clearing 4 rows at a time beeps!
  * 
  * Notes:
- * -The "currentPiece" points to a piece that is
- * currently falling, or is null when there is no piece.
  * -tick() moves the current piece
  * -a timer object calls tick(DOWN) periodically
  * -keystrokes call tick() with LEFT, RIGHT, etc.
- * -Board.undo() is used to remove the piece from its
- * old position and then Board.place() is used to install
- * the piece in its new position.
+ * -the engine calls back when the piece moves or rows fill
+ * or clear, and JTetris repaints what changed
  */
 package tetris;
 
@@ -48,42 +46,37 @@ public class JTetris extends JComponent {
 	// (default false, so debugging is easier)
 	protected boolean DRAW_OPTIMIZE = false;
 	
-	// Board data structures
-	protected Board board;
-	protected Piece[] pieces;
+	// The game being played
+	protected GameEngine engine;
 	
+	// Copies of the engine's state, kept for subclasses written before
+	// GameEngine; they follow the game, but setting them changes nothing.
+	// Use engine instead.
+	@Deprecated protected Board board;
+	@Deprecated protected Piece[] pieces;
+	@Deprecated protected Piece currentPiece;
+	@Deprecated protected int currentX;
+	@Deprecated protected int currentY;
+	@Deprecated protected boolean gameOn;
+	@Deprecated protected int count;
+	@Deprecated protected int score;
 	
-	// The current piece in play or null
-	protected Piece currentPiece;
-	protected int currentX;
-	protected int currentY;
-	protected boolean moved;	// did the player move the piece
+	// The pieces that will be played after the current one, in order
+	public static final int PREVIEW_SIZE = GameEngine.PREVIEW_SIZE;
 	
-	
-	// The piece we're thinking about playing
-	// -- set by computeNewPosition
-	// (storing this in ivars is slightly questionable style)
-	protected Piece newPiece;
-	protected int newX;
-	protected int newY;
-	
-	// State of the game
-	protected boolean gameOn;	// true if we are playing
-	protected int count;		 // how many pieces played so far
 	protected long startTime;	// used to measure elapsed time
-	protected Random random;	 // the random generator for new pieces
 	
 	
 	// Controls
 	protected JLabel countLabel;
 	protected JLabel scoreLabel;
-	protected int score;
 	protected JLabel timeLabel;
 	protected JButton startButton;
 	protected JButton stopButton;
 	protected javax.swing.Timer timer;
 	protected JSlider speed;
 	protected JCheckBox testButton;
+	protected JComponent previewPane;
 	
 	public final int DELAY = 400;	// milliseconds per tick
 	
@@ -99,10 +92,51 @@ public class JTetris extends JComponent {
 		// a 1 pixel border around the whole thing.
 		setPreferredSize(new Dimension((WIDTH * pixels)+2,
 				(HEIGHT+TOP_SPACE)*pixels+2));
-		gameOn = false;
 		
-		pieces = Piece.getPieces();
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		engine = new GameEngine(WIDTH, HEIGHT, TOP_SPACE) {
+			protected Piece pickNextPiece() {
+				return JTetris.this.pickNextPiece();
+			}
+			
+			protected void pieceMoved(Piece oldPiece, int oldX, int oldY) {
+				JTetris.this.currentPiece = getCurrentPiece();
+				JTetris.this.currentX = getCurrentX();
+				JTetris.this.currentY = getCurrentY();
+				
+				// repaint the rect where it used to be, and where it is now
+				if (oldPiece != null) repaintPiece(oldPiece, oldX, oldY);
+				repaintPiece(getCurrentPiece(), getCurrentX(), getCurrentY());
+			}
+			
+			protected void rowsFilled() {
+				// draw the whole board so the green row shows up
+				repaint();
+			}
+			
+			protected void rowsCleared(int cleared) {
+				// clearing 4 gets you a beep!
+				if (cleared == 4) Toolkit.getDefaultToolkit().beep();
+				repaint();	// repaint to show the result of the row clearing
+			}
+			
+			protected void countersChanged() {
+				JTetris.this.gameOn = isGameOn();
+				JTetris.this.count = getCount();
+				JTetris.this.score = getScore();
+				updateCounters();
+			}
+			
+			protected void previewChanged() {
+				if (previewPane != null) previewPane.repaint();
+			}
+			
+			protected void gameStopped() {
+				JTetris.this.gameOn = false;
+				JTetris.this.gameStopped();
+			}
+		};
+		board = engine.getBoard();	// the engine reuses its board from game to game
+		pieces = engine.getPieces();
 
 
 		/*
@@ -201,27 +235,18 @@ public class JTetris extends JComponent {
 	 * so the game is happening.
 	 */
 	public void startGame() {
-		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
-		
-		// draw the new board state once
-		repaint();
-		
-		count = 0;
-		score = 0;
-		updateCounters();
-		gameOn = true;
-		
 		// Set mode based on checkbox at start of game
 		testMode = testButton.isSelected();
 		
-		if (testMode) random = new Random(0);	// same seq every time
-		else random = new Random(); // diff seq each game
+		timeLabel.setText(" ");
+		if (testMode) engine.startGame(new Random(0), TEST_LIMIT);	// same seq every time
+		else engine.startGame(new Random(), 0); // diff seq each game
+		
+		// draw the new board state once
+		repaint();
 		
 		enableButtons();
-		timeLabel.setText(" ");
-		addNewPiece();
-		timer.start();
+		if (engine.isGameOn()) timer.start();
 		startTime = System.currentTimeMillis();
 	}
 	
@@ -232,8 +257,8 @@ public class JTetris extends JComponent {
 	 * based on the gameOn state.
 	 */
 	private void enableButtons() {
-		startButton.setEnabled(!gameOn);
-		stopButton.setEnabled(gameOn);
+		startButton.setEnabled(!engine.isGameOn());
+		stopButton.setEnabled(engine.isGameOn());
 	}
 	
 	/* Method: stopGame
@@ -241,7 +266,14 @@ public class JTetris extends JComponent {
 	 * Stops the game.
 	 */
 	public void stopGame() {
-		gameOn = false;
+		engine.stopGame();
+	}
+	
+	/* Method: gameStopped
+	 * -------------------
+	 * Called by the engine when the game ends or is stopped.
+	 */
+	private void gameStopped() {
 		enableButtons();
 		timer.stop();
 		
@@ -253,84 +285,39 @@ public class JTetris extends JComponent {
 	
 	/* Method: setCurrent
 	 * ------------------
-	 * Given a piece, tries to install that piece
-	 * into the board and set it to be the current piece.
-	 * Does the necessary repaints.
-	 * If the placement is not possible, then the placement
-	 * is undone, and the board is not changed. The board
-	 * should be in the committed state when this is called.
-	 * Returns the same error code as Board.place().
+	 * Tries to make the piece at (x, y) the current piece.
+	 * See GameEngine.setCurrent().
 	 */
+	@Deprecated
 	public int setCurrent(Piece piece, int x, int y) {
-		int result = board.place(piece, x, y);
-		
-		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-			// repaint the rect where it used to be
-			if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
-			currentPiece = piece;
-			currentX = x;
-			currentY = y;
-			// repaint the rect where it is now
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		else {
-			board.undo();
-		}
-		
-		return(result);
+		return engine.setCurrent(piece, x, y);
 	}
-
-
+	
+	/* Method: addNewPiece
+	 * -------------------
+	 * Tries to add a new piece at the top of the board.
+	 * See GameEngine.addNewPiece().
+	 */
+	@Deprecated
+	public void addNewPiece() {
+		engine.addNewPiece();
+	}
+	
 	/* Method: pickNextPiece
 	 * -------------
 	 * Selects the next piece to use using the random generator
 	 * set in startGame().
 	 */
 	public Piece pickNextPiece() {
-		int pieceNum;
-		
-		pieceNum = (int) (pieces.length * random.nextDouble());
-		
-		Piece piece	 = pieces[pieceNum];
-		
-		return(piece);
+		return(engine.randomPiece());
 	}
 	
-			
-	/* Method: addNewPiece
-	 * Tries to add a new random piece at the top of the board.
-	 * Ends the game if it's not possible.
+	/* Method: getPreview
+	 * ------------------
+	 * Returns the pieces that will be played after the current one, in order.
 	 */
-	public void addNewPiece() {
-		count++;
-		score++;
-		
-		if (testMode && count == TEST_LIMIT+1) {
-			 stopGame();
-			 return;
-		}
-
-		// commit things the way they are
-		board.commit();
-		currentPiece = null;
-
-		Piece piece = pickNextPiece();
-		
-		// Center it up at the top
-		int px = (board.getWidth() - piece.getWidth())/2;
-		int py = board.getHeight() - piece.getHeight();
-		
-		// add the new piece to be in play
-		int result = setCurrent(piece, px, py);
-		
-		// This probably never happens, since
-		// the blocks at the top allow space
-		// for new pieces to at least be added.
-		if (result>Board.PLACE_ROW_FILLED) {
-			stopGame();
-		}
-
-		updateCounters();
+	public Piece[] getPreview() {
+		return engine.getPreview();
 	}
 	
 	/* Method: updateCounters
@@ -338,147 +325,28 @@ public class JTetris extends JComponent {
 	 * Updates the count/score labels with the latest values.
 	 */
 	private void updateCounters() {
-		countLabel.setText("Pieces " + count);
-		scoreLabel.setText("Score " + score);
+		countLabel.setText("Pieces " + engine.getCount());
+		scoreLabel.setText("Score " + engine.getScore());
 	}
 	
 	
-	/* Method: computeNewPosition
-	 * --------------------------
-	 * Figures a new position for the current piece
-	 * based on the given verb (LEFT, RIGHT, ...).
-	 * The board should be in the committed state --
-	 * i.e. the piece should not be in the board at the moment.
-	 * This is necessary so dropHeight() may be called without
-	 * the piece "hitting itself" on the way down.
-	 * 
-	 * Sets the ivars newX, newY, and newPiece to hold
-	 * what it thinks the new piece position should be.
-	 */
-	public void computeNewPosition(int verb) {
-		// As a starting point, the new position is the same as the old
-		newPiece = currentPiece;
-		newX = currentX;
-		newY = currentY;
-		
-		// Make changes based on the verb
-		switch (verb) {
-			case LEFT: newX--; break;
-			
-			case RIGHT: newX++; break;
-			
-			case ROTATE:
-				newPiece = newPiece.fastRotation();
-				
-				// tricky: make the piece appear to rotate about its center
-				// can't just leave it at the same lower-left origin as the
-				// previous piece.
-				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
-				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
-				break;
-				
-			case DOWN: newY--; break;
-			
-			case DROP:
-			 newY = board.dropHeight(newPiece, newX);
-			 
-			 // trick: avoid the case where the drop would cause
-			 // the piece to appear to move up
-			 if (newY > currentY) {
-				 newY = currentY;
-			 }
-			 break;
-			 
-			default:
-				 throw new RuntimeException("Bad verb");
-		}
-	
-	}
-		
-	public static final int ROTATE = 0;
-	public static final int LEFT = 1;
-	public static final int RIGHT = 2;
-	public static final int DROP = 3;
-	public static final int DOWN = 4;
+	public static final int ROTATE = GameEngine.ROTATE;
+	public static final int LEFT = GameEngine.LEFT;
+	public static final int RIGHT = GameEngine.RIGHT;
+	public static final int DROP = GameEngine.DROP;
+	public static final int DOWN = GameEngine.DOWN;
 	/* Method: tick
 	 * ------------
 	 * Called to change the position of the current piece.
 	 * Each key press calls this once with the verbs
 	 * LEFT RIGHT ROTATE DROP for the user moves,
 	 * and the timer calls it with the verb DOWN to move
-	 * the piece down one square.
-	 * 
-	 * Before this is called, the piece is at some location in the board.
-	 * This advances the piece to be at its next location.
+	 * the piece down one square. The engine does the moving.
 	 * 
 	 * Overriden by the brain when it plays.
 	 */
 	public void tick(int verb) {
-		if (!gameOn) return;
-		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-		
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
-		
-		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
-		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
-		}
-		
-
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-		
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		
-		/*
-		 How to detect when a piece has landed:
-		 if this move hits something on its DOWN verb,
-		 and the previous verb was also DOWN (i.e. the player was not
-		 still moving it),	then the previous position must be the correct
-		 "landed" position, so we're done with the falling of this piece.
-		*/
-		if (failed && verb==DOWN && !moved) {	// it's landed
-		
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-					case 1: score += 5;	 break;
-					case 2: score += 10;  break;
-					case 3: score += 20;  break;
-					case 4: score += 40; Toolkit.getDefaultToolkit().beep(); break;
-					default: score += 50;  // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
-			}
-			
-			
-			// if the board is too tall, we've lost
-			if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-				stopGame();
-			}
-			// Otherwise add a new piece and keep playing
-			else {
-				addNewPiece();
-			}
-		}
-		
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb!=DOWN);
+		engine.tick(verb);
 	}
 
 
@@ -522,7 +390,7 @@ public class JTetris extends JComponent {
 	 * Return width in pixels of a block
 	 */
 	private final float dX() {
-		return( ((float)(getWidth()-2)) / board.getWidth() );
+		return( ((float)(getWidth()-2)) / engine.getBoard().getWidth() );
 	}
 
 	/* Method: dY
@@ -530,7 +398,7 @@ public class JTetris extends JComponent {
 	 * Return height in pixels of a block
 	 */
 	private final float dY() {
-		return( ((float)(getHeight()-2)) / board.getHeight() );
+		return( ((float)(getHeight()-2)) / engine.getBoard().getHeight() );
 	}
 	
 	/* Method: xPixel
@@ -558,6 +426,8 @@ public class JTetris extends JComponent {
 	 * Draws rows that are filled all the way across in green.
 	 */
 	public void paintComponent(Graphics g) {
+		final Board board = engine.getBoard();
+		
 		// Draw a rect around the whole thing
 		g.drawRect(0, 0, getWidth()-1, getHeight()-1);
 		
@@ -607,6 +477,25 @@ public class JTetris extends JComponent {
 	}
 	
 	
+	// Size in pixels of a block in the preview
+	private static final int PREVIEW_BLOCK = 8;
+	
+	/* Method: paintPreview
+	 * --------------------
+	 * Draws the preview pieces left to right, each in a box 6 blocks
+	 * wide, sitting on the bottom of the preview pane.
+	 */
+	private void paintPreview(Graphics g) {
+		int bottom = previewPane.getHeight() - 1;
+		int left = 0;
+		for (Piece piece : engine.getPreviewPieces()) {
+			for (TPoint pt : piece.getBody()) {
+				g.fillRect(left + pt.x*PREVIEW_BLOCK, bottom - (pt.y+1)*PREVIEW_BLOCK, PREVIEW_BLOCK-1, PREVIEW_BLOCK-1);
+			}
+			left += 6 * PREVIEW_BLOCK;
+		}
+	}
+	
 	/* Method: updateTimer
 	 * -------------------
 	 * Updates the timer to reflect the current setting of the 
@@ -638,6 +527,18 @@ public class JTetris extends JComponent {
 		// TIME 
 		timeLabel = new JLabel(" ");
 		panel.add(timeLabel);
+		
+		// PREVIEW of the next pieces
+		panel.add(Box.createVerticalStrut(12));
+		panel.add(new JLabel("Next:"));
+		previewPane = new JComponent() {
+			public void paintComponent(Graphics g) {
+				paintPreview(g);
+			}
+		};
+		previewPane.setPreferredSize(new Dimension(PREVIEW_SIZE * 6 * PREVIEW_BLOCK, 5 * PREVIEW_BLOCK));
+		previewPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+		panel.add(previewPane);
 
 		panel.add(Box.createVerticalStrut(12));
 		
@@ -0,0 +1,233 @@
+/* Class LookaheadBrain.java
+ * -------------------------
+ * A Brain that plays the current piece looking ahead at the pieces in the
+ * preview. It searches the placements of the current piece and the next
+ * depth-1 preview pieces, and plays the current piece where the best final
+ * board (as rated by ratePlacement()) can be reached.
+ *
+ * At each level the placements are rated on their own first, and only the
+ * best few (branching) are searched further, best first. The last piece is
+ * only rated, never placed. Pieces are placed and backed out with
+ * Board.mark() and rollback(), so the search works on the caller's board.
+ *
+ * The search deepens one piece at a time, starting with the plain
+ * DefaultBrain choice. If a time budget is set, or bestMove() is given a
+ * deadline or a token, a deeper search that runs out of time or is
+ * cancelled is abandoned and the deepest finished one is played.
+ */
+
+package tetris;
+
+public class LookaheadBrain extends DefaultBrain {
+    private final int depth;
+    private final int branching;
+    private final long budgetNanos;
+
+    // For each level of the search: the placements, and the indexes of the
+    // ones to search further with their scores, best first
+    private int[][] levelPlacements = new int[0][];
+    private int[][] levelOrder = new int[0][];
+    private double[][] levelScores = new double[0][];
+
+    // State of the current search
+    private long deadline;
+    private CancellationToken token;
+    private boolean outOfTime;
+    private int rootBest;
+
+	/* Constructor: LookaheadBrain
+	 * ---------------------------
+	 * Creates a brain that searches the current piece and one preview
+	 * piece, 8 placements wide, with no time limit.
+	 */
+    public LookaheadBrain() {
+        this(2, 8, 0);
+    }
+
+	/* Constructor: LookaheadBrain
+	 * ---------------------------
+	 * Creates a brain that searches up to depth pieces (the current one and
+	 * depth-1 from the preview), following the best branching placements
+	 * of each. With budgetMillis > 0, each move gets at most about that long.
+	 */
+    public LookaheadBrain(int depth, int branching, long budgetMillis) {
+        if (depth < 1 || branching < 1) throw new RuntimeException("Lookahead needs a depth and branching of at least 1");
+        this.depth = depth;
+        this.branching = branching;
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * With no preview, plays like DefaultBrain.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, new Piece[0], limitHeight, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * Given a piece, the pieces after it and a board, returns a move object
+     * for the current piece, or returns null if no play is possible.
+     * See the Brain interface for details.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, limitHeight, Long.MAX_VALUE, null, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * As above, returning by the deadline or when the token is cancelled,
+	 * or when the time budget runs out if that comes first. The plain
+	 * DefaultBrain choice is always finished, however little time is left.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight,
+                               long deadline, CancellationToken token, Brain.Move move) {
+        // Allocate a move object if necessary
+        if (move==null) move = new Brain.Move();
+
+        board.commit();
+
+        final int levels = 1 + Math.min(depth-1, preview.length);
+        final Piece[] queue = new Piece[levels];
+        queue[0] = piece;
+        System.arraycopy(preview, 0, queue, 1, levels-1);
+        ensureLevels(levels, board.getWidth());
+
+        this.deadline = (budgetNanos > 0) ? Math.min(deadline, System.nanoTime() + budgetNanos) : deadline;
+        this.token = token;
+        outOfTime = false;
+
+        // the placement to play, from the deepest search that finished
+        int bestRotation = -1;
+        int bestX = 0;
+        int bestY = 0;
+        double bestScore = 1e20;
+
+        for (int searchDepth = 1; searchDepth <= levels; searchDepth++) {
+            rootBest = -1;
+            final double score = search(board, queue, 0, searchDepth, limitHeight);
+            if (outOfTime) break;
+
+            // a deeper search that only finds dead ends keeps the shallower choice
+            if (rootBest >= 0 && score < 1e20) {
+                final int base = rootBest * Board.EVAL_STRIDE;
+                bestRotation = levelPlacements[0][base + Board.EVAL_ROTATION];
+                bestX = levelPlacements[0][base + Board.EVAL_X];
+                bestY = levelPlacements[0][base + Board.EVAL_Y];
+                bestScore = score;
+            }
+        }
+        board.commit();
+
+        if (bestRotation < 0) return(null);    // could not find a play at all!
+        else {
+            Piece bestPiece = piece;
+            for (int r = bestRotation; r>0; r--) bestPiece = bestPiece.fastRotation();
+
+            move.x = bestX;
+            move.y = bestY;
+            move.piece = bestPiece;
+            move.score = bestScore;
+            return(move);
+        }
+    }
+
+    /* Method: search
+     * --------------
+     * Returns the best score of a final board that can be reached by placing
+     * the pieces from queue[level] up to queue[searchDepth-1] on the board, or
+     * 1e20 if there is none. At level 0, rootBest is set to the placement of
+     * the current piece that leads to it. The board is left as it was found.
+     */
+    private double search(Board board, Piece[] queue, int level, int searchDepth, int limitHeight) {
+        final int[] placements = levelPlacements[level];
+        final int count = board.evaluatePlacements(queue[level], limitHeight, placements);
+
+        // the last piece is only rated
+        if (level == searchDepth-1) {
+            double best = 1e20;
+            for (int i = 0; i<count; i++) {
+                final double score = ratePlacement(board, queue[level], placements, i);
+                if (score<best) {
+                    best = score;
+                    if (level == 0) rootBest = i;
+                }
+            }
+            return best;
+        }
+
+        final int kept = orderPlacements(board, queue[level], level, count);
+        final int[] order = levelOrder[level];
+        double best = 1e20;
+        final int mark = board.mark();
+        for (int k = 0; k<kept && !outOfTime; k++) {
+            final int i = order[k];
+            placeAndClear(board, queue[level], placements, i);
+            final double score = search(board, queue, level+1, searchDepth, limitHeight);
+            board.rollback(mark);
+
+            if (score<best) {
+                best = score;
+                if (level == 0) rootBest = i;
+            }
+            // out of time with placements left: this search is cut short
+            if (k < kept-1 && CancellationToken.isExpired(deadline, token)) outOfTime = true;
+        }
+        board.release(mark);
+        return best;
+    }
+
+    /* Method: orderPlacements
+     * -----------------------
+     * Puts the indexes of the best branching placements of this level into
+     * its order array, best first (ties in the order they were found), and
+     * returns how many there are.
+     */
+    private int orderPlacements(Board board, Piece piece, int level, int count) {
+        final int[] order = levelOrder[level];
+        final double[] scores = levelScores[level];
+        int kept = 0;
+        for (int i = 0; i<count; i++) {
+            final double score = ratePlacement(board, piece, levelPlacements[level], i);
+            if (kept == branching && score >= scores[kept-1]) continue;
+
+            // insert after any equal scores, dropping the worst if full
+            int k = (kept < branching) ? kept++ : kept-1;
+            while (k > 0 && scores[k-1] > score) {
+                scores[k] = scores[k-1];
+                order[k] = order[k-1];
+                k--;
+            }
+            scores[k] = score;
+            order[k] = i;
+        }
+        return kept;
+    }
+
+    /* Method: placeAndClear
+     * ---------------------
+     * Plays one of the placements on the board.
+     */
+    private static void placeAndClear(Board board, Piece piece, int[] placements, int index) {
+        final int base = index * Board.EVAL_STRIDE;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+        final int result = board.place(piece, placements[base + Board.EVAL_X], placements[base + Board.EVAL_Y]);
+        if (result > Board.PLACE_ROW_FILLED) throw new RuntimeException("Lookahead placement failed");
+        board.clearRows();
+    }
+
+    /* Method: ensureLevels
+     * --------------------
+     * Makes sure there are buffers for the given number of levels on a board
+     * of the given width.
+     */
+    private void ensureLevels(int levels, int width) {
+        final int needed = Board.EVAL_STRIDE * 4 * width;
+        if (levelPlacements.length < levels || levelPlacements[0].length < needed) {
+            levelPlacements = new int[levels][needed];
+            levelOrder = new int[levels][branching];
+            levelScores = new double[levels][branching];
+        }
+    }
+}
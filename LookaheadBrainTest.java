@@ -0,0 +1,91 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class LookaheadBrainTest {
+	private Piece[] pieces;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+	}
+
+	// A brain that cancels its token when it first rates a placement of the given piece
+	private static class CancellingBrain extends LookaheadBrain {
+		final CancellationToken token = new CancellationToken();
+		final Piece cancelOn;
+
+		CancellingBrain(int depth, int branching, Piece cancelOn) {
+			super(depth, branching, 0);
+			this.cancelOn = cancelOn;
+		}
+
+		public double ratePlacement(Board board, Piece piece, int[] placements, int index) {
+			if (piece == cancelOn) token.cancel();
+			return super.ratePlacement(board, piece, placements, index);
+		}
+	}
+
+	// Searching one piece deep, or with no preview, is DefaultBrain, and the board is left as it was
+	@Test
+	public void testSameAsDefault() {
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new LookaheadBrain(1, 8, 0), new Board(10, 24), 3, 80, 13);
+		BrainTestSupport.assertSameMoves(new DefaultBrain(), new LookaheadBrain(3, 8, 0), new Board(10, 24), 0, 80, 13);
+	}
+
+	// A deeper search leaves the board as it was, and its move is a legal one
+	@Test
+	public void testBoardUnchanged() {
+		LookaheadBrain brain = new LookaheadBrain(3, 4, 0);
+		Board board = new Board(10, 24);
+		Piece[] preview = { pieces[3], pieces[5] };
+		for (int i = 0; i < 30; i++) {
+			long hash = board.getZobristHash();
+			Brain.Move move = brain.bestMove(board, pieces[i % pieces.length], preview, 20, null);
+			if (move == null) break;
+			assertEquals(hash, board.getZobristHash());
+			assertEquals(move.y, board.dropHeight(move.piece, move.x));
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+	}
+
+	// With the deadline passed or the token cancelled before it starts, the move is DefaultBrain's
+	@Test
+	public void testDeadline() {
+		LookaheadBrain brain = new LookaheadBrain(3, 8, 0);
+		Board board = new Board(10, 24);
+		Piece[] preview = { pieces[3], pieces[5] };
+		Brain.Move plain = new DefaultBrain().bestMove(board, pieces[1], 20, null);
+
+		Brain.Move late = brain.bestMove(board, pieces[1], preview, 20, System.nanoTime() - 1, null, null);
+		assertEquals(plain.piece, late.piece);
+		assertEquals(plain.x, late.x);
+		assertEquals(plain.y, late.y);
+		assertEquals(plain.score, late.score, 1e-9);
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		Brain.Move cancelled = brain.bestMove(board, pieces[1], preview, 20, Long.MAX_VALUE, token, null);
+		assertEquals(plain.x, cancelled.x);
+		assertEquals(plain.score, cancelled.score, 1e-9);
+	}
+
+	// Time running out during the last placement of a search does not throw the finished search away
+	@Test
+	public void testLastPlacementKept() {
+		Board board = new Board(10, 24);
+		Piece[] preview = { pieces[3] };
+		Brain.Move full = new LookaheadBrain(2, 1, 0).bestMove(board, pieces[1], preview, 20, null);
+
+		// one placement searched two deep, cancelled while it is being searched
+		CancellingBrain brain = new CancellingBrain(2, 1, pieces[3]);
+		Brain.Move move = brain.bestMove(board, pieces[1], preview, 20, Long.MAX_VALUE, brain.token, null);
+		assertTrue(brain.token.isCancelled());
+		assertEquals(full.x, move.x);
+		assertEquals(full.score, move.score, 1e-9);
+	}
+}
@@ -0,0 +1,428 @@
+/* Class: OffHeapBoard.java
+ * ------------------------
+ * A Tetris board whose state lives in a slot of a BoardSlab instead of on the
+ * Java heap. It supports the same place / clearRows / undo / commit cycle as
+ * Board, with the same results, for boards up to 64 columns wide and 255 rows
+ * high -- enough to run headless games by the million. Brains work on Board,
+ * so copyTo() and copyFrom() move a game in and out of an ordinary Board.
+ *
+ * Each slot holds one long per row (column x in bit x), one byte per column
+ * height, the max height, and what undo() needs: the old column heights, the
+ * cells the last piece filled, and the old top of the stack and a bit mask of
+ * the rows the last clearRows() removed. Full rows are all ones, so cleared
+ * rows need not be saved, and row widths are a bit count of the row, so they
+ * are not stored at all.
+ */
+package tetris;
+
+import java.nio.ByteBuffer;
+
+public class OffHeapBoard {
+	// Most piece cells undo() can remember
+	private static final int MAX_CELLS = 8;
+
+	// Bits of the flags byte
+	private static final int COMMITTED = 1;
+	private static final int PLACED = 2;
+	private static final int CLEARED = 4;
+
+	private final BoardSlab slab;
+	private final ByteBuffer memory;
+	private final int width;
+	private final int height;
+	private final long fullRow;
+
+	// Offsets in the slot
+	private final int heightsAt;
+	private final int maxHeightAt;
+	private final int flagsAt;
+	private final int undoMaxHeightAt;
+	private final int undoCellCountAt;
+	private final int clearedTopAt;
+	private final int undoHeightsAt;
+	private final int undoCellsAt;
+	private final int clearedMaskAt;
+
+	// Offset of the slot in memory, or -1 once released
+	private int base;
+
+	/* Constructor: OffHeapBoard
+	 * -------------------------
+	 * Boards are made by BoardSlab.allocate().
+	 */
+	OffHeapBoard(BoardSlab slab, ByteBuffer memory, int base) {
+		this.slab = slab;
+		this.memory = memory;
+		this.base = base;
+		this.width = slab.getWidth();
+		this.height = slab.getHeight();
+		fullRow = (width == 64) ? -1L : (1L << width) - 1;
+
+		heightsAt = 8*height;
+		maxHeightAt = heightsAt + width;
+		flagsAt = maxHeightAt + 1;
+		undoMaxHeightAt = flagsAt + 1;
+		undoCellCountAt = undoMaxHeightAt + 1;
+		clearedTopAt = undoCellCountAt + 1;
+		undoHeightsAt = clearedTopAt + 1;
+		undoCellsAt = undoHeightsAt + width;
+		clearedMaskAt = undoCellsAt + 2*MAX_CELLS;
+	}
+
+	/* Method: slotBytes
+	 * -----------------
+	 * Returns the size of the slot for a board of the given size, rounded
+	 * up so that the rows of every slot stay 8-byte aligned.
+	 */
+	static int slotBytes(int width, int height) {
+		int bytes = 8*height + width + 5 + width + 2*MAX_CELLS + (height+7)/8;
+		return (bytes + 7) & ~7;
+	}
+
+	/* Method: getSlab
+	 * ---------------
+	 * Returns the slab the board's slot belongs to.
+	 */
+	public BoardSlab getSlab() {
+		return slab;
+	}
+
+	/* Method: detach
+	 * --------------
+	 * Marks the board as released and returns the offset of its slot.
+	 */
+	int detach() {
+		if (base < 0) throw new RuntimeException("Board already released");
+		int old = base;
+		base = -1;
+		return old;
+	}
+
+	/* Method: clear
+	 * -------------
+	 * Empties the board and leaves it committed.
+	 */
+	void clear() {
+		int bytes = slotBytes(width, height);
+		for (int i = 0; i < bytes; i += 8) memory.putLong(base + i, 0L);
+		setFlags(COMMITTED);
+	}
+
+	/* Method: getWidth
+	 * ----------------
+	 * Returns the width of the board in blocks.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/* Method: getHeight
+	 * -----------------
+	 * Returns the height of the board in blocks.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/* Method: getMaxHeight
+	 * --------------------
+	 * Returns the max column height present in the board.
+	 * For an empty board this is 0.
+	 */
+	public int getMaxHeight() {
+		return memory.get(base + maxHeightAt) & 0xFF;
+	}
+
+	/* Method: getColumnHeight
+	 * -----------------------
+	 * Returns the height of the given column --
+	 * i.e. the y value of the highest block + 1.
+	 */
+	public int getColumnHeight(int x) {
+		return memory.get(base + heightsAt + x) & 0xFF;
+	}
+
+	/* Method: getRowWidth
+	 * -------------------
+	 * Returns the number of filled blocks in the given row.
+	 */
+	public int getRowWidth(int y) {
+		return Long.bitCount(getRow(y));
+	}
+
+	/* Method: getGrid
+	 * ---------------
+	 * Returns true if the given block is filled in the board.
+	 * Blocks outside of the valid width/height area
+	 * always return true, as for Board.
+	 */
+	public boolean getGrid(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return true;
+		return ((getRow(y) >>> x) & 1L) != 0;
+	}
+
+	/* Method: getRow
+	 * --------------
+	 * Returns the bit mask of the given row.
+	 */
+	long getRow(int y) {
+		return memory.getLong(base + 8*y);
+	}
+
+	/* Method: isCommitted
+	 * -------------------
+	 * Returns true if the board is in the committed state.
+	 */
+	public boolean isCommitted() {
+		return (getFlags() & COMMITTED) != 0;
+	}
+
+	/* Method: dropHeight
+	 * ------------------
+	 * Given a piece and an x value, returns the y value where the piece
+	 * would come to rest if it were dropped straight down at that x.
+	 */
+	public int dropHeight(Piece piece, int x) {
+		if (x < 0 || x >= width) throw new RuntimeException("Cannot drop piece out of bounds");
+
+		int firstStop = 0;
+		int[] skirt = piece.getSkirt();
+		for (int i = 0; i < piece.getWidth(); i++) {
+			int stop = getColumnHeight(x+i) - skirt[i];
+			if (stop > firstStop) firstStop = stop;
+		}
+		return firstStop;
+	}
+
+	/* Method: place
+	 * -------------
+	 * Adds the body of a piece to the board, returning the same results as
+	 * Board.place(): PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or PLACE_BAD.
+	 * In the error cases, the client can use undo() to recover.
+	 */
+	public int place(Piece piece, int x, int y) {
+		if (!isCommitted()) throw new RuntimeException("place commit problem");
+		setFlags(0);
+
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		if (x < 0 || x + piece.getWidth() > width || y < 0 || y + piece.getHeight() > height) return Board.PLACE_OUT_BOUNDS;
+		if (y < dropHeight(piece, x)) return Board.PLACE_BAD;
+		if (bodyX.length > MAX_CELLS) throw new RuntimeException("Piece too large to place off-heap");
+
+		saveHeights();
+		setFlags(PLACED);
+		memory.put(base + undoCellCountAt, (byte)bodyX.length);
+
+		for (int i = 0; i < bodyX.length; i++) {
+			int xCoord = x + bodyX[i];
+			int yCoord = y + bodyY[i];
+			memory.put(base + undoCellsAt + 2*i, (byte)xCoord);
+			memory.put(base + undoCellsAt + 2*i+1, (byte)yCoord);
+			if (yCoord+1 > getColumnHeight(xCoord)) memory.put(base + heightsAt + xCoord, (byte)(yCoord+1));
+		}
+
+		// each row of the piece is ORed in whole
+		int result = Board.PLACE_OK;
+		long[] rowMasks = piece.getRowMasks();
+		for (int i = 0; i < rowMasks.length; i++) {
+			long row = getRow(y+i) | (rowMasks[i] << x);
+			memory.putLong(base + 8*(y+i), row);
+			if (row == fullRow) result = Board.PLACE_ROW_FILLED;
+		}
+		if (y + rowMasks.length > getMaxHeight()) memory.put(base + maxHeightAt, (byte)(y + rowMasks.length));
+		return result;
+	}
+
+	/* Method: clearRows
+	 * -----------------
+	 * Deletes rows that are filled all the way across, moving
+	 * things above down. Returns the number of rows cleared.
+	 */
+	public int clearRows() {
+		int flags = getFlags() & ~COMMITTED;
+		setFlags(flags);
+
+		int maxHeight = getMaxHeight();
+		int to = 0;
+		for (int from = 0; from < maxHeight; from++) {
+			long row = getRow(from);
+			if (row == fullRow) {
+				// the state to undo to is saved before the first change
+				if ((flags & CLEARED) == 0) {
+					if ((flags & PLACED) == 0) saveHeights();
+					flags |= CLEARED;
+					setFlags(flags);
+					clearMask();
+					memory.put(base + clearedTopAt, (byte)maxHeight);
+				}
+				int maskAt = base + clearedMaskAt + (from >>> 3);
+				memory.put(maskAt, (byte)(memory.get(maskAt) | (1 << (from & 7))));
+			} else {
+				if (to != from) memory.putLong(base + 8*to, row);
+				to++;
+			}
+		}
+		int rowsCleared = maxHeight - to;
+		if (rowsCleared == 0) return 0;
+
+		for (int y = to; y < maxHeight; y++) memory.putLong(base + 8*y, 0L);
+		resetHeights(to);
+		return rowsCleared;
+	}
+
+	/* Method: undo
+	 * ------------
+	 * Reverts the board to its state before up to one place
+	 * and one clearRows(), as Board.undo() does.
+	 */
+	public void undo() {
+		int flags = getFlags();
+		if ((flags & COMMITTED) != 0) return;
+
+		if ((flags & CLEARED) != 0) {
+			// working down from the old top, put each full row back and move the other rows up over them
+			int oldMaxHeight = memory.get(base + clearedTopAt) & 0xFF;
+			int cleared = 0;
+			for (int y = 0; y < oldMaxHeight; y++) {
+				if (isCleared(y)) cleared++;
+			}
+			for (int y = oldMaxHeight-1; cleared > 0; y--) {
+				if (isCleared(y)) {
+					memory.putLong(base + 8*y, fullRow);
+					cleared--;
+				} else {
+					memory.putLong(base + 8*y, getRow(y - cleared));
+				}
+			}
+		}
+
+		if ((flags & PLACED) != 0) {
+			int cells = memory.get(base + undoCellCountAt);
+			for (int i = 0; i < cells; i++) {
+				int xCoord = memory.get(base + undoCellsAt + 2*i) & 0xFF;
+				int yCoord = memory.get(base + undoCellsAt + 2*i+1) & 0xFF;
+				memory.putLong(base + 8*yCoord, getRow(yCoord) & ~(1L << xCoord));
+			}
+		}
+
+		if ((flags & (PLACED | CLEARED)) != 0) {
+			for (int x = 0; x < width; x++) memory.put(base + heightsAt + x, memory.get(base + undoHeightsAt + x));
+			memory.put(base + maxHeightAt, memory.get(base + undoMaxHeightAt));
+		}
+		setFlags(COMMITTED);
+	}
+
+	/* Method: commit
+	 * --------------
+	 * Puts the board in the committed state.
+	 */
+	public void commit() {
+		setFlags(COMMITTED);
+	}
+
+	/* Method: copyTo
+	 * --------------
+	 * Loads this board's grid into the given Board, which must have the same
+	 * size. The Board is left committed, with nothing to undo.
+	 */
+	public void copyTo(Board board) {
+		if (board.getWidth() != width || board.getHeight() != height) throw new RuntimeException("Board size mismatch");
+		board.loadRows(this);
+	}
+
+	/* Method: copyFrom
+	 * ----------------
+	 * Replaces this board's grid with that of the given Board, which must
+	 * have the same size. This board is left committed, with nothing to undo.
+	 */
+	public void copyFrom(Board board) {
+		if (board.getWidth() != width || board.getHeight() != height) throw new RuntimeException("Board size mismatch");
+		for (int y = 0; y < height; y++) memory.putLong(base + 8*y, board.getRowWord(y, 0));
+		for (int x = 0; x < width; x++) memory.put(base + heightsAt + x, (byte)board.getColumnHeight(x));
+		memory.put(base + maxHeightAt, (byte)board.getMaxHeight());
+		setFlags(COMMITTED);
+	}
+
+	/* Method: getFlags
+	 * ----------------
+	 * Returns the flags byte.
+	 */
+	private int getFlags() {
+		if (base < 0) throw new RuntimeException("Board has been released");
+		return memory.get(base + flagsAt);
+	}
+
+	/* Method: setFlags
+	 * ----------------
+	 * Sets the flags byte.
+	 */
+	private void setFlags(int flags) {
+		memory.put(base + flagsAt, (byte)flags);
+	}
+
+	/* Method: saveHeights
+	 * -------------------
+	 * Saves the column heights and max height for undo().
+	 */
+	private void saveHeights() {
+		for (int x = 0; x < width; x++) memory.put(base + undoHeightsAt + x, memory.get(base + heightsAt + x));
+		memory.put(base + undoMaxHeightAt, memory.get(base + maxHeightAt));
+	}
+
+	/* Method: clearMask
+	 * -----------------
+	 * Empties the mask of cleared rows.
+	 */
+	private void clearMask() {
+		for (int i = 0; i < (height+7)/8; i++) memory.put(base + clearedMaskAt + i, (byte)0);
+	}
+
+	/* Method: isCleared
+	 * -----------------
+	 * Returns true if the given row is set in the mask of cleared rows.
+	 */
+	private boolean isCleared(int y) {
+		return ((memory.get(base + clearedMaskAt + (y >>> 3)) >>> (y & 7)) & 1) != 0;
+	}
+
+	/* Method: resetHeights
+	 * --------------------
+	 * Recomputes the column heights and max height by sweeping down from the
+	 * given row, as Board.resetHeightArray() does.
+	 */
+	private void resetHeights(int top) {
+		long seen = 0;
+		int maxHeight = 0;
+		for (int x = 0; x < width; x++) memory.put(base + heightsAt + x, (byte)0);
+		for (int y = top-1; y >= 0 && seen != fullRow; y--) {
+			long tops = getRow(y) & ~seen;
+			if (tops == 0) continue;
+			seen |= tops;
+			if (y+1 > maxHeight) maxHeight = y+1;
+			while (tops != 0) {
+				memory.put(base + heightsAt + Long.numberOfTrailingZeros(tops), (byte)(y+1));
+				tops &= tops-1;
+			}
+		}
+		memory.put(base + maxHeightAt, (byte)maxHeight);
+	}
+
+	/* Method: toString
+	 * ----------------
+	 * Renders the board state as a big String, in the same format as Board.
+	 */
+	public String toString() {
+		StringBuilder buff = new StringBuilder();
+		for (int y = height-1; y>=0; y--) {
+			buff.append('|');
+			for (int x=0; x<width; x++) {
+				if (getGrid(x,y)) buff.append('+');
+				else buff.append(' ');
+			}
+			buff.append("|\n");
+		}
+		for (int x=0; x<width+2; x++) buff.append('-');
+		return(buff.toString());
+	}
+}
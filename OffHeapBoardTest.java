@@ -0,0 +1,86 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class OffHeapBoardTest {
+	private BoardSlab slab;
+	private OffHeapBoard b;
+	private Piece pyr1, stick, square;
+
+	@Before
+	public void setUp() throws Exception {
+		slab = new BoardSlab(3, 6, 4);
+		b = slab.allocate();
+
+		pyr1 = new Piece(Piece.PYRAMID_STR);
+		stick = new Piece(Piece.STICK_STR);
+		square = new Piece(Piece.SQUARE_STR);
+
+		b.place(pyr1, 0, 0);
+		b.commit();
+	}
+
+	// Check the basic width/height/max after the one placement, as in BoardTest
+	@Test
+	public void testSample1() {
+		assertEquals(1, b.getColumnHeight(0));
+		assertEquals(2, b.getColumnHeight(1));
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(3, b.getRowWidth(0));
+		assertEquals(1, b.getRowWidth(1));
+		assertEquals(0, b.getRowWidth(2));
+		assertTrue(b.getGrid(-1, 0));
+	}
+
+	// Place, clear and undo
+	@Test
+	public void testClearAndUndo() {
+		String before = b.toString();
+		assertEquals(Board.PLACE_BAD, b.place(stick, 1, 0));
+		b.undo();
+		assertEquals(before, b.toString());
+
+		assertEquals(Board.PLACE_OK, b.place(stick, 0, 1));
+		assertEquals(1, b.clearRows());
+		assertEquals(4, b.getColumnHeight(0));
+		assertEquals(1, b.getColumnHeight(1));
+		assertEquals(0, b.getColumnHeight(2));
+		assertEquals(4, b.getMaxHeight());
+		b.undo();
+		assertEquals(before, b.toString());
+		assertEquals(2, b.getMaxHeight());
+	}
+
+	// Slots are recycled, and come back empty
+	@Test
+	public void testSlab() {
+		assertEquals(1, slab.getAllocated());
+		OffHeapBoard other = slab.allocate();
+		other.place(square, 0, 0);
+		slab.release(other);
+		assertEquals(1, slab.getAllocated());
+
+		other = slab.allocate();
+		assertEquals(0, other.getMaxHeight());
+		assertEquals(0, other.getRowWidth(0));
+		assertTrue(slab.getSlotBytes() <= 8*6 + 64);
+	}
+
+	// Copy a game to a Board and back
+	@Test
+	public void testCopy() {
+		Board board = new Board(3, 6);
+		b.copyTo(board);
+		assertEquals(b.toString(), board.toString());
+		assertEquals(2, board.getMaxHeight());
+
+		board.place(square, 0, 2);
+		board.commit();
+		b.copyFrom(board);
+		assertEquals(board.toString(), b.toString());
+		assertEquals(4, b.getColumnHeight(0));
+		assertEquals(4, b.getMaxHeight());
+	}
+}
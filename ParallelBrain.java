@@ -0,0 +1,187 @@
+/* Class ParallelBrain.java
+ * ------------------------
+ * DefaultBrain with the placements of wide boards rated in parallel.
+ * bestMove() cuts the placements of the piece (rotation by rotation, then
+ * by x) into one run per pool thread. It runs the first run itself and
+ * submits the others to a ForkJoinPool. Each run rates its placements on
+ * its own copy of the board, and the runs' best placements are reduced to
+ * the one with the lowest score.
+ *
+ * Rating a placement takes some 30-45 ns, and splitting a decision in two
+ * (submitting a task, copying the board and joining) adds about 3-18 us,
+ * the worth of 40-500 placements, as BrainBenchmark measured on one core.
+ * So runs are never made shorter than MIN_RUN_PLACEMENTS, the most a split
+ * was seen to cost, rounded up: when there are too few placements for two
+ * runs, which is every board under about 256 columns, bestMove() is just
+ * DefaultBrain's. That only says where a split can start to pay; no speedup
+ * has been measured on more than one core.
+ *
+ * Ties go to the placement DefaultBrain tries first, so for any board this
+ * returns exactly the same move as DefaultBrain. Subclasses that override
+ * ratePlacement() or rateFeatures() must keep them safe to call from several
+ * threads at once. Like DefaultBrain, one brain must not be asked for moves
+ * by two threads at once: the board copies belong to the brain.
+ */
+
+package tetris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ParallelBrain extends DefaultBrain {
+    // The fewest placements worth a run of their own (see the class comment)
+    public static final int MIN_RUN_PLACEMENTS = 512;
+
+    private final ForkJoinPool pool;
+    private final int maxRuns;
+    private final int minRunPlacements;
+
+    // Each run's board copy and placement buffer, made on first use
+    private final Run[] runs;
+
+    // The best placement a run found; order is its position in DefaultBrain's order
+    private static class Run {
+        Board board;
+        int[] placements = new int[0];
+
+        double score;
+        int order;
+        int rotation;
+        int x;
+        int y;
+    }
+
+	/* Constructor: ParallelBrain
+	 * --------------------------
+	 * Creates a brain that runs on the common ForkJoinPool.
+	 */
+    public ParallelBrain() {
+        this(ForkJoinPool.commonPool());
+    }
+
+	/* Constructor: ParallelBrain
+	 * --------------------------
+	 * Creates a brain that runs on the given pool, in at most one run per
+	 * thread of the pool.
+	 */
+    public ParallelBrain(ForkJoinPool pool) {
+        this(pool, MIN_RUN_PLACEMENTS);
+    }
+
+	/* Constructor: ParallelBrain
+	 * --------------------------
+	 * Creates a brain that runs on the given pool, in at most one run per
+	 * thread of the pool, and never in runs of fewer than minRunPlacements
+	 * placements. BrainBenchmark uses a small minimum to time the cost of
+	 * splitting a decision on any board.
+	 */
+    public ParallelBrain(ForkJoinPool pool, int minRunPlacements) {
+        if (minRunPlacements < 1) throw new RuntimeException("Runs need at least one placement");
+        this.pool = pool;
+        this.maxRuns = Math.max(1, pool.getParallelism());
+        this.minRunPlacements = minRunPlacements;
+        runs = new Run[maxRuns];
+        for (int r = 0; r < maxRuns; r++) runs[r] = new Run();
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * Given a piece and a board, returns a move object that represents
+     * the best play for that piece, or returns null if no play is possible.
+     * See the Brain interface for details.
+	 */
+    public Brain.Move bestMove(final Board board, Piece piece, final int limitHeight, Brain.Move move) {
+        // the rotations in the order DefaultBrain tries them
+        final List<Piece> rotations = new ArrayList<Piece>();
+        Piece current = piece;
+        while (current != null) {
+            rotations.add(current);
+            current = current.fastRotation();
+            if (current == piece) break;
+        }
+
+        // each rotation at each x, as DefaultBrain orders them; a few at the right
+        // edge do not fit, so this is a little more than the placements there are
+        final int width = board.getWidth();
+        final int total = rotations.size() * width;
+        final int count = Math.min(maxRuns, total / minRunPlacements);
+        if (count < 2) return super.bestMove(board, piece, limitHeight, move);
+
+        // Allocate a move object if necessary
+        if (move==null) move = new Brain.Move();
+
+        board.commit();
+
+        // run 0 on this thread, the others on the pool
+        final List<Future<?>> tasks = new ArrayList<Future<?>>(count - 1);
+        for (int r = 1; r < count; r++) {
+            final int run = r;
+            tasks.add(pool.submit(() -> rateRun(runs[run], board, rotations, limitHeight, run * total / count, (run+1) * total / count)));
+        }
+        rateRun(runs[0], board, rotations, limitHeight, 0, total / count);
+        try {
+            for (Future<?> task : tasks) task.get();
+        } catch (InterruptedException e) {
+            for (Future<?> task : tasks) task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rating placements", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Rating placements failed", e.getCause());
+        }
+
+        // the lowest score, and on a tie the run that comes first, as DefaultBrain would
+        Run best = null;
+        for (int r = 0; r < count; r++) {
+            if (runs[r].order >= 0 && (best == null || runs[r].score < best.score)) best = runs[r];
+        }
+
+        if (best == null) return(null);    // could not find a play at all!
+        else {
+            move.x = best.x;
+            move.y = best.y;
+            move.piece = rotations.get(best.rotation);
+            move.score = best.score;
+            return(move);
+        }
+    }
+
+    /* Method: rateRun
+     * ---------------
+     * Rates the placements from first up to (not including) end in
+     * DefaultBrain's order, where placement rotation*width + x is the
+     * rotation at x, on the run's copy of the board. Leaves the first one
+     * with the lowest score in the run, or order -1 if there are none.
+     */
+    private void rateRun(Run run, Board board, List<Piece> rotations, int limitHeight, int first, int end) {
+        if (run.board == null || run.board.getWidth() != board.getWidth() || run.board.getHeight() != board.getHeight()) {
+            run.board = board.copy();
+        } else {
+            run.board.copyFrom(board);
+        }
+        final int width = board.getWidth();
+        if (run.placements.length < Board.EVAL_STRIDE * width) run.placements = new int[Board.EVAL_STRIDE * width];
+        final int[] placements = run.placements;
+
+        run.order = -1;
+        run.score = 1e20;
+        for (int start = first; start < end; ) {
+            final int rotation = start / width;
+            final int firstX = start % width;
+            final int endX = Math.min(width, firstX + end - start);
+            final int count = run.board.evaluatePlacements(rotations.get(rotation), rotation, firstX, endX, limitHeight, placements);
+            for (int i = 0; i<count; i++) {
+                final double score = ratePlacement(run.board, rotations.get(0), placements, i);
+                if (score<run.score) {
+                    final int base = i * Board.EVAL_STRIDE;
+                    run.score = score;
+                    run.rotation = rotation;
+                    run.x = placements[base + Board.EVAL_X];
+                    run.y = placements[base + Board.EVAL_Y];
+                    run.order = rotation * width + run.x;
+                }
+            }
+            start += endX - firstX;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package tetris;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.*;
+
+public class ParallelBrainTest {
+	// On a normal board ParallelBrain is DefaultBrain; on a wide one it splits the placements up, with the same result
+	@Test
+	public void testSameMoves() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BrainTestSupport.assertSameMoves(new DefaultBrain(), new ParallelBrain(pool), new Board(10, 24), 0, 100, 10);
+			BrainTestSupport.assertSameMoves(new DefaultBrain(), new ParallelBrain(pool), new Board(2 * ParallelBrain.MIN_RUN_PLACEMENTS, 24), 0, 50, 20);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -10,11 +10,15 @@ import java.util.*;
 public class Piece {
 	private TPoint[] body;
 	private int[] skirt;
+	private int[] bodyX;	// the body as flat coordinates, in body order
+	private int[] bodyY;
+	private long[] rowMasks;	// bit x of rowMasks[y] is set if the body holds x,y
+	private int[] dropTable;	// see makeDropTable()
 	private int width;
 	private int height;
 	private Piece next; // "next" rotation
-
-	static private Piece[] pieces;	// singleton static array of first rotations
+	private int ordinal = -1;	// set when the piece is interned by PieceRegistry
+	private int hash;
 
 	/* Constructor: Piece
 	 * ------------------
@@ -46,6 +50,19 @@ public class Piece {
 			}
 		}
 		
+		// the primitive forms of the body, so that boards never need the TPoints
+		if (width > 64) throw new RuntimeException("Piece is wider than 64 blocks");
+		bodyX = new int[body.length];
+		bodyY = new int[body.length];
+		rowMasks = new long[height];
+		for (int i = 0; i < body.length; i++) {
+			bodyX[i] = body[i].x;
+			bodyY[i] = body[i].y;
+			rowMasks[body[i].y] |= 1L << body[i].x;
+		}
+		hash = Arrays.hashCode(rowMasks);
+		dropTable = makeDropTable();
+		
 		next = null;
 	}
 	
@@ -98,6 +115,35 @@ public class Piece {
 		return skirt;
 	}
 
+	/* Method: getBodyX
+	 * ----------------
+	 * Returns the x values of the body points, in the same order as
+	 * getBody(). The caller should not modify this array.
+	 */
+	public int[] getBodyX() {
+		return bodyX;
+	}
+
+	/* Method: getBodyY
+	 * ----------------
+	 * Returns the y values of the body points, in the same order as
+	 * getBody(). The caller should not modify this array.
+	 */
+	public int[] getBodyY() {
+		return bodyY;
+	}
+
+	/* Method: getRowMasks
+	 * -------------------
+	 * Returns the body packed as one bit mask per row of the piece: bit x
+	 * of element y is set if the body holds the point x,y. A row of the piece
+	 * is placed at column x by shifting its mask left by x.
+	 * The caller should not modify this array.
+	 */
+	public long[] getRowMasks() {
+		return rowMasks;
+	}
+
 	
 	/* Method: computeNextRotation
 	 * ---------------------------
@@ -105,22 +151,14 @@ public class Piece {
 	 * rotated from the receiver.
 	 */
 	public Piece computeNextRotation() {
-		// make new array of points based on old array in string format
-		String nextBody = "";
-		
-		for(TPoint t : body) {
-			int updatedX = height - t.y - 1;
-			int updatedY = t.x;
-			
-			nextBody += updatedX;
-			nextBody += " ";
-			nextBody += updatedY;
-			nextBody += " ";
+		// make new array of points rotated from the old ones
+		TPoint[] nextBody = new TPoint[body.length];
+		for (int i = 0; i < body.length; i++) {
+			nextBody[i] = new TPoint(height - bodyY[i] - 1, bodyX[i]);
 		}
 		
 		// construct and return the new piece
-		Piece nextPiece = new Piece(nextBody);
-		return nextPiece;
+		return new Piece(nextBody);
 	}
 
 	/* Method: fastRotation
@@ -133,6 +171,65 @@ public class Piece {
 	public Piece fastRotation() {
 		return next;
 	}
+
+	// Largest drop table made; wider and taller pieces have none
+	static final int DROP_TABLE_LIMIT = 4096;
+
+	/* Method: makeDropTable
+	 * ---------------------
+	 * Returns the table Board.dropHeights() looks landing heights up in.
+	 * Under the piece, let top be the tallest column and depth[i] how far
+	 * column i is below it. The piece lands at top - min(depth[i] + skirt[i]),
+	 * and a depth of height-1 or more never gives the minimum, so depths are
+	 * clamped to height-1. The table holds min(depth[i] + skirt[i]) for every
+	 * clamped depth profile, indexed by the depths as the digits of a base
+	 * height number, column 0 lowest. Returns null if the table would have
+	 * more than DROP_TABLE_LIMIT entries.
+	 */
+	private int[] makeDropTable() {
+		long size = 1;
+		for (int i = 0; i < width; i++) {
+			size *= height;
+			if (size > DROP_TABLE_LIMIT) return null;
+		}
+		
+		int[] table = new int[(int)size];
+		for (int key = 0; key < size; key++) {
+			int rest = key;
+			int min = Integer.MAX_VALUE;
+			for (int i = 0; i < width; i++) {
+				min = Math.min(min, rest % height + skirt[i]);
+				rest /= height;
+			}
+			table[key] = min;
+		}
+		return table;
+	}
+
+	/* Method: getDropTable
+	 * --------------------
+	 * Returns the table made by makeDropTable(), or null. Only Board uses this.
+	 */
+	int[] getDropTable() {
+		return dropTable;
+	}
+
+	/* Method: getOrdinal
+	 * ------------------
+	 * Returns the small integer PieceRegistry gave this rotation when it
+	 * was interned, or -1 if it was not interned.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	/* Method: setOrdinal
+	 * ------------------
+	 * Sets the ordinal. Only PieceRegistry calls this.
+	 */
+	void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
 	
 
 
@@ -154,18 +251,21 @@ public class Piece {
 		if (!(obj instanceof Piece)) return false;
 		Piece other = (Piece)obj;
 		
-		// iterate through the points of other's body - each point must have a match in this.body at some point
-		for (TPoint otherP : other.body) {
-			boolean found = false;
-			for(TPoint currP : body) {
-				// if a match is found for the given point, set found to true
-				if (otherP.equals(currP)) found = true;
-			}
-			// return false if the point was not found
-			if (!found) return false;
-		}
+		// interned pieces are canonical, so two different ones never match
+		if (ordinal >= 0 && other.ordinal >= 0) return false;
+		
+		// the row masks hold exactly the body points, whatever their order
+		return Arrays.equals(rowMasks, other.rowMasks);
+	}
 
-		return true;
+	/* Method: hashCode
+	 * ----------------
+	 * Returns a hash of the row masks, which does not depend on the
+	 * order of the points, to be consistent with equals().
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
 	}
 
 	// String constants for the standard 7 tetris pieces
@@ -192,23 +292,10 @@ public class Piece {
 	 * tetris pieces in the order STICK, L1, L2, S1, S2, SQUARE, PYRAMID. The next 
 	 * (counterclockwise) rotation can be obtained from each piece with the message. 
 	 * In this way, the client can iterate through all the rotations until eventually 
-	 * getting back to the first rotation.
+	 * getting back to the first rotation. The pieces are interned by PieceRegistry.
 	 */
 	public static Piece[] getPieces() {
-		// lazy evaluation -- create static array if needed
-		if (Piece.pieces==null) {
-			// use makeFastRotations() to compute all the rotations for each piece
-			Piece.pieces = new Piece[] {
-				makeFastRotations(new Piece(STICK_STR)),
-				makeFastRotations(new Piece(L1_STR)),
-				makeFastRotations(new Piece(L2_STR)),
-				makeFastRotations(new Piece(S1_STR)),
-				makeFastRotations(new Piece(S2_STR)),
-				makeFastRotations(new Piece(SQUARE_STR)),
-				makeFastRotations(new Piece(PYRAMID_STR)),
-			};
-		}
-		return Piece.pieces;
+		return PieceRegistry.getStandardPieces();
 	}
 	
 
@@ -223,7 +310,7 @@ public class Piece {
 	 * Note: uses computeNextRotation() and Piece.equals() to detect when 
 	 * the rotations have gotten us back to the first piece.
 	 */
-	private static Piece makeFastRotations(Piece root) {
+	static Piece makeFastRotations(Piece root) {
 		Piece currPiece = root;
 		while (true) {
 			Piece nextPiece = currPiece.computeNextRotation();
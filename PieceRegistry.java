@@ -0,0 +1,151 @@
+/* Class: PieceRegistry
+ * --------------------
+ * Interns pieces. Every rotation of every registered piece gets one canonical
+ * Piece instance, linked into its fastRotation() chain, and a small ordinal:
+ * the rotations are numbered 0, 1, 2... in the order they are registered, so
+ * tables about pieces can be plain arrays of getCount() entries indexed by
+ * getOrdinal(). Two interned pieces are equal only if they are the same object.
+ *
+ * The 7 standard pieces are always registered first, so their 19 rotations
+ * have the ordinals 0 to 18 in every run. Custom sets, such as the
+ * pentominoes, can be registered after them from body strings or text.
+ * Text holds one piece per line in the Piece(String) format; blank lines
+ * and lines starting with '#' are skipped.
+ *
+ * All methods may be called from any thread.
+ */
+package tetris;
+
+import java.io.*;
+import java.util.*;
+
+public class PieceRegistry {
+	// Canonical instance of each interned rotation, and the same indexed by ordinal
+	private static final Map<Piece, Piece> canonical = new HashMap<Piece, Piece>();
+	private static volatile Piece[] byOrdinal = new Piece[0];
+
+	// The first rotation of each standard piece, in the order of the Piece index constants
+	private static final Piece[] STANDARD = register(
+		Piece.STICK_STR, Piece.L1_STR, Piece.L2_STR, Piece.S1_STR,
+		Piece.S2_STR, Piece.SQUARE_STR, Piece.PYRAMID_STR);
+
+	// The 18 one-sided pentominoes: F, I, L, N, P, T, U, V, W, X, Y, Z and the mirror images
+	public static final String PENTOMINOES_TEXT =
+		"# F\n1 0  0 1  1 1  1 2  2 2\n1 0  1 1  2 1  0 2  1 2\n" +
+		"# I\n0 0  0 1  0 2  0 3  0 4\n" +
+		"# L\n0 0  1 0  0 1  0 2  0 3\n0 0  1 0  1 1  1 2  1 3\n" +
+		"# N\n0 0  0 1  1 1  1 2  1 3\n1 0  0 1  1 1  0 2  0 3\n" +
+		"# P\n0 0  0 1  1 1  0 2  1 2\n1 0  0 1  1 1  0 2  1 2\n" +
+		"# T\n1 0  1 1  0 2  1 2  2 2\n" +
+		"# U\n0 0  1 0  2 0  0 1  2 1\n" +
+		"# V\n0 0  1 0  2 0  0 1  0 2\n" +
+		"# W\n1 0  2 0  0 1  1 1  0 2\n" +
+		"# X\n1 0  0 1  1 1  2 1  1 2\n" +
+		"# Y\n1 0  1 1  0 2  1 2  1 3\n0 0  0 1  0 2  1 2  0 3\n" +
+		"# Z\n1 0  2 0  1 1  0 2  1 2\n0 0  1 0  1 1  1 2  2 2\n";
+
+	private PieceRegistry() {
+	}
+
+	/* Method: getStandardPieces
+	 * -------------------------
+	 * Returns the first rotation of each of the 7 standard pieces in the order
+	 * STICK, L1, L2, S1, S2, SQUARE, PYRAMID. The caller should not modify the array.
+	 */
+	public static Piece[] getStandardPieces() {
+		return STANDARD;
+	}
+
+	/* Method: getPentominoes
+	 * ----------------------
+	 * Registers the 18 one-sided pentominoes if they are not already, and
+	 * returns the first rotation of each.
+	 */
+	public static Piece[] getPentominoes() {
+		return parse(PENTOMINOES_TEXT);
+	}
+
+	/* Method: intern
+	 * --------------
+	 * Returns the canonical instance of the piece. A shape seen for the first
+	 * time has all its rotations computed, linked and numbered, and the given
+	 * piece becomes the canonical instance of its own rotation.
+	 */
+	public static synchronized Piece intern(Piece piece) {
+		Piece known = canonical.get(piece);
+		if (known != null) return known;
+
+		Piece root = Piece.makeFastRotations(piece);
+		int count = 1;
+		for (Piece p = root.fastRotation(); p != root; p = p.fastRotation()) count++;
+
+		Piece[] newOrdinals = Arrays.copyOf(byOrdinal, byOrdinal.length + count);
+		Piece p = root;
+		for (int i = byOrdinal.length; i < newOrdinals.length; i++) {
+			p.setOrdinal(i);
+			canonical.put(p, p);
+			newOrdinals[i] = p;
+			p = p.fastRotation();
+		}
+		byOrdinal = newOrdinals;
+		return root;
+	}
+
+	/* Method: register
+	 * ----------------
+	 * Interns a set of pieces given as body strings, such as "0 0  1 0  1 1",
+	 * and returns the canonical instance of each, in the same order.
+	 */
+	public static Piece[] register(String... bodies) {
+		Piece[] set = new Piece[bodies.length];
+		for (int i = 0; i < bodies.length; i++) set[i] = intern(new Piece(bodies[i]));
+		return set;
+	}
+
+	/* Method: parse
+	 * -------------
+	 * Registers the pieces in the given text, one body string per line,
+	 * and returns them in order.
+	 */
+	public static Piece[] parse(String text) {
+		try {
+			return load(new StringReader(text));
+		} catch (IOException e) {
+			throw new RuntimeException(e);    // cannot happen with a StringReader
+		}
+	}
+
+	/* Method: load
+	 * ------------
+	 * Registers the pieces read from the given reader, one body string per
+	 * line, and returns them in order.
+	 */
+	public static Piece[] load(Reader reader) throws IOException {
+		List<String> bodies = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			bodies.add(line);
+		}
+		if (bodies.isEmpty()) throw new RuntimeException("No pieces found");
+		return register(bodies.toArray(new String[0]));
+	}
+
+	/* Method: getCount
+	 * ----------------
+	 * Returns the number of interned rotations, one more than the largest ordinal.
+	 */
+	public static int getCount() {
+		return byOrdinal.length;
+	}
+
+	/* Method: get
+	 * -----------
+	 * Returns the interned rotation with the given ordinal.
+	 */
+	public static Piece get(int ordinal) {
+		return byOrdinal[ordinal];
+	}
+}
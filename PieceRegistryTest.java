@@ -0,0 +1,80 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class PieceRegistryTest {
+
+	// The standard pieces always hold the first ordinals
+	@Test
+	public void testStandardOrdinals() {
+		Piece[] pieces = Piece.getPieces();
+		assertSame(pieces, PieceRegistry.getStandardPieces());
+		
+		boolean[] seen = new boolean[19];
+		for (Piece root : pieces) {
+			Piece p = root;
+			do {
+				assertTrue(p.getOrdinal() >= 0 && p.getOrdinal() < 19);
+				assertFalse(seen[p.getOrdinal()]);
+				seen[p.getOrdinal()] = true;
+				assertSame(p, PieceRegistry.get(p.getOrdinal()));
+				p = p.fastRotation();
+			} while (p != root);
+		}
+		assertEquals(0, pieces[Piece.STICK].getOrdinal());
+		assertTrue(PieceRegistry.getCount() >= 19);
+	}
+
+	// Interning returns the canonical rotation, whatever the point order
+	@Test
+	public void testIntern() {
+		Piece pyramid = Piece.getPieces()[Piece.PYRAMID];
+		Piece copy = new Piece("2 0  1 1  1 0  0 0");
+		assertEquals(-1, copy.getOrdinal());
+		assertTrue(copy.equals(pyramid));
+		assertTrue(pyramid.equals(copy));
+		assertSame(pyramid, PieceRegistry.intern(copy));
+		
+		// a later rotation interns to the same chain
+		Piece rotated = pyramid.computeNextRotation().computeNextRotation();
+		assertSame(pyramid.fastRotation().fastRotation(), PieceRegistry.intern(rotated));
+		
+		assertFalse(pyramid.equals(pyramid.fastRotation()));
+	}
+
+	// Custom sets get their own ordinals, and registering them again changes nothing
+	@Test
+	public void testPentominoes() {
+		Piece[] pentominoes = PieceRegistry.getPentominoes();
+		assertEquals(18, pentominoes.length);
+		int count = PieceRegistry.getCount();
+		
+		int rotations = 0;
+		for (Piece root : pentominoes) {
+			assertEquals(5, root.getBody().length);
+			assertTrue(root.getOrdinal() >= 19);
+			Piece p = root;
+			do {
+				rotations++;
+				p = p.fastRotation();
+			} while (p != root);
+		}
+		assertEquals(63, rotations);
+		
+		assertTrue(Arrays.equals(pentominoes, PieceRegistry.getPentominoes()));
+		assertEquals(count, PieceRegistry.getCount());
+	}
+
+	// Text sets skip comments and blank lines
+	@Test
+	public void testParse() {
+		Piece[] set = PieceRegistry.parse("# two pieces\n\n0 0  0 1  0 2  0 3\n  0 0  1 0  0 1  1 1\n");
+		assertEquals(2, set.length);
+		assertSame(Piece.getPieces()[Piece.STICK], set[0]);
+		assertSame(Piece.getPieces()[Piece.SQUARE], set[1]);
+	}
+}
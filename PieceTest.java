@@ -222,4 +222,27 @@ public class PieceTest {
 		assertTrue(square.equals(square.computeNextRotation()));
 	}
 	
+	// Test the row masks and flat coordinates of the body
+	@Test
+	public void testPackedBody() {
+		assertArrayEquals(new long[] {0x7L, 0x2L}, pyr1.getRowMasks());
+		assertArrayEquals(new long[] {0x2L, 0x3L, 0x2L}, pyr2.getRowMasks());
+		assertArrayEquals(new long[] {0x1L, 0x1L, 0x1L, 0x1L}, stick.getRowMasks());
+		assertArrayEquals(new long[] {0x3L, 0x6L}, so1.getRowMasks());
+		
+		// the flat coordinates follow the body order
+		TPoint[] body = lo1.getBody();
+		assertEquals(body.length, lo1.getBodyX().length);
+		for (int i = 0; i < body.length; i++) {
+			assertEquals(body[i].x, lo1.getBodyX()[i]);
+			assertEquals(body[i].y, lo1.getBodyY()[i]);
+		}
+		
+		// point order does not matter to equals() and hashCode()
+		Piece reordered = new Piece("2 0  1 1  1 0  0 0");
+		assertTrue(pyr1.equals(reordered));
+		assertEquals(pyr1.hashCode(), reordered.hashCode());
+		assertFalse(pyr1.equals(pyr3));
+	}
+	
 }
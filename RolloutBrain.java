@@ -0,0 +1,329 @@
+/* Class RolloutBrain.java
+ * -----------------------
+ * A Brain that judges the placements of the current piece by playing
+ * games on from them. The best few placements (as rated by ratePlacement())
+ * are the candidates; until the time budget runs out, worker threads take
+ * the candidates in turn and play a rollout from each: the pieces of the
+ * preview and then random pieces, each played where the cheap O(1)
+ * ratePlacement(board, placements, index) likes it best, for up to
+ * rolloutDepth pieces. A rollout is worth the rateBoard() of the board it
+ * ends on, or DEAD if it runs out of room. The candidate with the best mean
+ * is played.
+ *
+ * It is an anytime brain: bestMove() returns when the budget is spent, or
+ * by the deadline it is given, or when its token is cancelled, with the
+ * best candidate so far, and before any rollout has finished the best
+ * candidate is DefaultBrain's choice. Each worker has its own board,
+ * placement buffer and random generator, made once, so rollouts allocate
+ * nothing. The calling thread is the first worker; the others run on a pool
+ * of daemon threads, one per core, that every RolloutBrain shares, so a
+ * brain per game (as BatchRunner makes them) does not mean threads per game.
+ *
+ * Timed, the moves depend on the clock and on how the threads are scheduled,
+ * so the same pieces do not always give the same game. setRollouts() makes
+ * it play a fixed number of rollouts per candidate instead, each with random
+ * pieces seeded from the board and the candidate, so the moves only depend on
+ * the game, whatever the number of threads.
+ */
+
+package tetris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RolloutBrain extends DefaultBrain {
+    // What a rollout that runs out of room is worth
+    public static final double DEAD = 1e6;
+
+    private final int candidates;
+    private final int rolloutDepth;
+    private final int threads;
+    private volatile long budgetNanos;
+    private volatile int rollouts;
+    private final Piece[] pieces = Piece.getPieces();
+
+    // The pool every brain's other workers run on, made on first use; its
+    // threads do not keep the VM alive
+    private static ExecutorService pool;
+
+    // Each worker's board, buffer, generator and totals per candidate
+    private Worker[] workers;
+
+    private static class Worker {
+        Board board;
+        int[] placements = new int[0];
+        final Random random;
+        final double[] sums;
+        final int[] counts;
+
+        Worker(long seed, int candidates) {
+            random = new Random(seed);
+            sums = new double[candidates];
+            counts = new int[candidates];
+        }
+    }
+
+    // The root placements, and the candidates among them, best rated first
+    private int[] placements = new int[0];
+    private int[] candidateIndexes;
+    private double[] candidateScores;
+
+    // The next candidate a worker should roll out, modulo the number of candidates
+    private final AtomicInteger next = new AtomicInteger();
+
+	/* Constructor: RolloutBrain
+	 * -------------------------
+	 * Creates a brain that rolls out the best 6 placements, 10 pieces deep,
+	 * for 50 milliseconds a move, on one thread per core.
+	 */
+    public RolloutBrain() {
+        this(6, 10, 50, Runtime.getRuntime().availableProcessors());
+    }
+
+	/* Constructor: RolloutBrain
+	 * -------------------------
+	 * Creates a brain that rolls out the best candidates placements,
+	 * rolloutDepth pieces deep, for about budgetMillis a move, with the given
+	 * number of workers (at most one per core run at once).
+	 */
+    public RolloutBrain(int candidates, int rolloutDepth, long budgetMillis, int threads) {
+        if (candidates < 1 || rolloutDepth < 1 || threads < 1) throw new RuntimeException("Rollouts need at least one candidate, piece and thread");
+        this.candidates = candidates;
+        this.rolloutDepth = rolloutDepth;
+        this.threads = threads;
+        setBudget(budgetMillis);
+
+        candidateIndexes = new int[candidates];
+        candidateScores = new double[candidates];
+        workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) workers[t] = new Worker(t + 1, candidates);
+    }
+
+	/* Method: setBudget
+	 * -----------------
+	 * Sets the time each move may take, from the next move on.
+	 */
+    public void setBudget(long budgetMillis) {
+        if (budgetMillis < 1) budgetMillis = 1;
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+	/* Method: setRollouts
+	 * -------------------
+	 * With rollouts > 0, from the next move on, plays that many rollouts of
+	 * each candidate, with no time budget, so the moves can be reproduced
+	 * (see the class comment). 0 goes back to rolling out for the budget.
+	 * A deadline given to bestMove() is still kept.
+	 */
+    public void setRollouts(int rollouts) {
+        if (rollouts < 0) throw new RuntimeException("Negative number of rollouts");
+        this.rollouts = rollouts;
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * With no preview, every rollout piece is random.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, new Piece[0], limitHeight, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * Given a piece, the pieces after it and a board, returns a move object
+     * for the current piece, or returns null if no play is possible.
+     * See the Brain interface for details.
+	 */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        final long deadline = (rollouts > 0) ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+        return bestMove(board, piece, preview, limitHeight, deadline, null, move);
+    }
+
+	/* Method: bestMove
+	 * ----------------
+	 * As above, rolling out until the given deadline, rather than for the
+	 * budget, or until the token is cancelled (or, with setRollouts(), until
+	 * the rollouts are done, if that comes first).
+	 */
+    public Brain.Move bestMove(final Board board, final Piece piece, final Piece[] preview, final int limitHeight,
+                               final long deadline, final CancellationToken token, Brain.Move move) {
+        // Allocate a move object if necessary
+        if (move==null) move = new Brain.Move();
+
+        board.commit();
+
+        final int needed = Board.EVAL_STRIDE * 4 * board.getWidth();
+        if (placements.length < needed) placements = new int[needed];
+        final int count = board.evaluatePlacements(piece, limitHeight, placements);
+        final int kept = chooseCandidates(board, piece, count);
+        if (kept == 0) return(null);    // could not find a play at all!
+
+        // roll out until the deadline, each worker keeping its own totals,
+        // unless there is nothing to choose between
+        for (Worker worker : workers) {
+            Arrays.fill(worker.sums, 0);
+            Arrays.fill(worker.counts, 0);
+        }
+        if (kept > 1) {
+            next.set(0);
+            final int fixed = rollouts;
+            final long boardHash = board.getZobristHash();
+            // worker 0 runs on this thread, the others on the pool
+            List<Future<?>> tasks = new ArrayList<Future<?>>(threads - 1);
+            Runnable own = null;
+            for (int t = 0; t < threads; t++) {
+                final Worker worker = workers[t];
+                final int first = t;
+                if (worker.board == null || worker.board.getWidth() != board.getWidth() || worker.board.getHeight() != board.getHeight()) {
+                    worker.board = new Board(board.getWidth(), board.getHeight());
+                    worker.placements = new int[needed];
+                }
+                final Runnable work = () -> {
+                    if (fixed > 0) {
+                        // each candidate is rolled out by one worker, its rollouts in order
+                        for (int k = first; k < kept; k += threads) {
+                            for (int j = 0; j < fixed && !CancellationToken.isExpired(deadline, token); j++) {
+                                worker.random.setSeed(boardHash + (k * (long)fixed + j) * 0x9E3779B97F4A7C15L);
+                                worker.sums[k] += rollout(worker, board, piece, preview, limitHeight, candidateIndexes[k]);
+                                worker.counts[k]++;
+                            }
+                        }
+                    } else {
+                        while (!CancellationToken.isExpired(deadline, token)) {
+                            final int k = (next.getAndIncrement() & Integer.MAX_VALUE) % kept;
+                            worker.sums[k] += rollout(worker, board, piece, preview, limitHeight, candidateIndexes[k]);
+                            worker.counts[k]++;
+                        }
+                    }
+                };
+                if (t == 0) own = work;
+                else tasks.add(getPool().submit(work));
+            }
+            try {
+                own.run();
+                for (Future<?> task : tasks) task.get();
+            } catch (InterruptedException e) {
+                for (Future<?> task : tasks) task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted during rollouts", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("A rollout failed", e.getCause());
+            }
+        }
+
+        // the best mean; before any rollout, the best rated candidate
+        int best = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < kept; k++) {
+            double sum = 0;
+            int rollouts = 0;
+            for (Worker worker : workers) {
+                sum += worker.sums[k];
+                rollouts += worker.counts[k];
+            }
+            if (rollouts > 0 && sum / rollouts < bestScore) {
+                bestScore = sum / rollouts;
+                best = k;
+            }
+        }
+        if (bestScore == Double.POSITIVE_INFINITY) bestScore = candidateScores[0];
+
+        final int base = candidateIndexes[best] * Board.EVAL_STRIDE;
+        Piece bestPiece = piece;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) bestPiece = bestPiece.fastRotation();
+        move.x = placements[base + Board.EVAL_X];
+        move.y = placements[base + Board.EVAL_Y];
+        move.piece = bestPiece;
+        move.score = bestScore;
+        return(move);
+    }
+
+    /* Method: chooseCandidates
+     * ------------------------
+     * Puts the indexes of the best rated placements into candidateIndexes,
+     * best first (ties in the order they were found), and returns how many.
+     */
+    private int chooseCandidates(Board board, Piece piece, int count) {
+        int kept = 0;
+        for (int i = 0; i<count; i++) {
+            final double score = ratePlacement(board, piece, placements, i);
+            if (score >= 1e20) continue;
+            if (kept == candidates && score >= candidateScores[kept-1]) continue;
+
+            int k = (kept < candidates) ? kept++ : kept-1;
+            while (k > 0 && candidateScores[k-1] > score) {
+                candidateScores[k] = candidateScores[k-1];
+                candidateIndexes[k] = candidateIndexes[k-1];
+                k--;
+            }
+            candidateScores[k] = score;
+            candidateIndexes[k] = i;
+        }
+        return kept;
+    }
+
+    /* Method: rollout
+     * ---------------
+     * Plays one rollout on the worker's board from the given root placement
+     * and returns what it is worth.
+     */
+    private double rollout(Worker worker, Board root, Piece piece, Piece[] preview, int limitHeight, int index) {
+        final Board board = worker.board;
+        board.copyFrom(root);
+        play(board, piece, placements, index);
+
+        final int[] buffer = worker.placements;
+        for (int depth = 0; depth < rolloutDepth; depth++) {
+            final Piece next = (depth < preview.length) ? preview[depth] : pieces[worker.random.nextInt(pieces.length)];
+            final int count = board.evaluatePlacements(next, limitHeight, buffer);
+
+            // the policy: the cheapest rating there is
+            int best = -1;
+            double bestScore = 1e20;
+            for (int i = 0; i<count; i++) {
+                final double score = ratePlacement(board, buffer, i);
+                if (score<bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            if (best < 0) return DEAD;
+            play(board, next, buffer, best);
+        }
+        return rateBoard(board);
+    }
+
+    /* Method: play
+     * ------------
+     * Plays one of the placements on the board and commits it.
+     */
+    private static void play(Board board, Piece piece, int[] placements, int index) {
+        final int base = index * Board.EVAL_STRIDE;
+        for (int r = placements[base + Board.EVAL_ROTATION]; r>0; r--) piece = piece.fastRotation();
+        if (board.place(piece, placements[base + Board.EVAL_X], placements[base + Board.EVAL_Y]) > Board.PLACE_ROW_FILLED) {
+            throw new RuntimeException("Rollout placement failed");
+        }
+        board.clearRows();
+        board.commit();
+    }
+
+    /* Method: getPool
+     * ---------------
+     * Returns the pool the workers after the first run on, making it the
+     * first time.
+     */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "RolloutBrain worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+}
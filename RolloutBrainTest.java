@@ -0,0 +1,69 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+
+import org.junit.*;
+
+public class RolloutBrainTest {
+	private Piece[] pieces;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+	}
+
+	// With a fixed number of rollouts, the moves are the same whatever the number of threads
+	@Test
+	public void testFixedRollouts() {
+		RolloutBrain one = new RolloutBrain(4, 5, 1, 1);
+		RolloutBrain three = new RolloutBrain(4, 5, 1, 3);
+		one.setRollouts(6);
+		three.setRollouts(6);
+
+		BrainTestSupport.assertSameMoves(one, three, new Board(10, 24), 2, 30, 23);
+	}
+
+	// A deadline or a cancelled token cuts a long budget short, and there is still a move
+	@Test
+	public void testDeadline() {
+		RolloutBrain brain = new RolloutBrain(4, 5, 60000, 2);
+		Board board = new Board(10, 24);
+		long start = System.nanoTime();
+		assertNotNull(brain.bestMove(board, pieces[0], new Piece[0], 20, start + 20000000L, null, null));
+		assertTrue(System.nanoTime() - start < 2000000000L);
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		Brain.Move move = brain.bestMove(board, pieces[0], new Piece[0], 20, Long.MAX_VALUE, token, null);
+		Brain.Move plain = new DefaultBrain().bestMove(board, pieces[0], 20, null);
+		assertEquals(plain.piece, move.piece);	// no rollouts: the best rated candidate
+		assertEquals(plain.x, move.x);
+		assertEquals(plain.y, move.y);
+	}
+
+	// A batch of games, each with its own brain, does not leave threads behind: every brain shares one pool
+	@Test
+	public void testSharedPool() {
+		BatchRunner runner = new BatchRunner(() -> {
+			RolloutBrain brain = new RolloutBrain(3, 3, 1, 3);
+			brain.setRollouts(2);
+			return brain;
+		}, 10, 20, 10);
+		long[] seeds = new long[30];
+		for (int i = 0; i < seeds.length; i++) seeds[i] = i;
+		ExecutorService executor = BatchRunner.newExecutor(2);
+		try {
+			assertEquals(seeds.length, runner.run(seeds, executor, null).size());
+		} finally {
+			executor.shutdown();
+		}
+
+		int workers = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("RolloutBrain worker")) workers++;
+		}
+		assertTrue(workers + " workers", workers <= Runtime.getRuntime().availableProcessors());
+	}
+}
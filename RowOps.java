@@ -0,0 +1,126 @@
+/* Class: RowOps.java
+ * ------------------
+ * Whole-grid operations on packed rows, as Board stores them: rowCount rows
+ * of rowWords longs each, in a circular buffer starting at row rowStart.
+ * This class is the plain scalar version. VectorRowOps does the same work
+ * several words at a time with the incubating Vector API, which pays off on
+ * boards a few hundred columns wide.
+ *
+ * get() picks the version once, from the tetris.rowops system property:
+ * "vector" uses VectorRowOps if it has been compiled (it is kept in vector/,
+ * out of the plain build) and the jdk.incubator.vector module is present
+ * (run with --add-modules jdk.incubator.vector); anything else is scalar.
+ * Both versions always give identical results.
+ *
+ * These are whole-grid scans, so Board only uses them where it rebuilds its
+ * bookkeeping from the rows (reload(), and sanityCheck() when debugging).
+ * clearRows() already knows the full rows and the hole count is kept up to
+ * date as pieces land, and on a 64-row board one scan of the row widths
+ * costs about as much as a whole place(), clearRows() and undo() (some
+ * 150 ns at 10 columns, 700 ns at 1024), so scanning there would only slow
+ * them down.
+ */
+package tetris;
+
+class RowOps {
+	private static final RowOps SCALAR = new RowOps();
+	private static final RowOps DEFAULT = "vector".equals(System.getProperty("tetris.rowops")) ? vectorOrScalar() : SCALAR;
+
+	/* Method: get
+	 * -----------
+	 * Returns the version chosen by the tetris.rowops system property.
+	 */
+	static RowOps get() {
+		return DEFAULT;
+	}
+
+	/* Method: scalar
+	 * --------------
+	 * Returns the scalar version.
+	 */
+	static RowOps scalar() {
+		return SCALAR;
+	}
+
+	/* Method: vector
+	 * --------------
+	 * Returns the Vector API version, or null if the jdk.incubator.vector
+	 * module is not available. It is loaded by name so that the rest of the
+	 * game runs without the module.
+	 */
+	static RowOps vector() {
+		try {
+			return (RowOps)Class.forName("tetris.VectorRowOps").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/* Method: vectorOrScalar
+	 * ----------------------
+	 * Returns the Vector API version if it is available, else the scalar one.
+	 */
+	private static RowOps vectorOrScalar() {
+		RowOps ops = vector();
+		return (ops != null) ? ops : SCALAR;
+	}
+
+	/* Method: getName
+	 * ---------------
+	 * Returns a short name for the version, for reports.
+	 */
+	String getName() {
+		return "scalar";
+	}
+
+	/* Method: rowWidths
+	 * -----------------
+	 * Counts the filled blocks of each of the first rowCount rows in the
+	 * buffer, in buffer order, into widths. Returns the total.
+	 */
+	int rowWidths(long[] rows, int rowWords, int rowCount, int[] widths) {
+		int total = 0;
+		for (int row = 0; row < rowCount; row++) {
+			int count = 0;
+			for (int word = 0; word < rowWords; word++) count += Long.bitCount(rows[row*rowWords + word]);
+			widths[row] = count;
+			total += count;
+		}
+		return total;
+	}
+
+	/* Method: columnHeights
+	 * ---------------------
+	 * Fills heights with the height of each column of the rows under top,
+	 * sweeping from the top down: the bits of a word not yet seen above are
+	 * the tops of their columns. rowCount is the size of the circular buffer
+	 * and rowStart the buffer row holding row 0. heights must start out as
+	 * zeros, which is what empty columns are left with. Returns the max height.
+	 */
+	int columnHeights(long[] rows, int rowWords, int rowCount, int rowStart, int top, int[] heights) {
+		int max = 0;
+		for (int word = 0; word < rowWords; word++) {
+			long seen = 0;
+			for (int y = top-1; y >= 0; y--) {
+				long tops = rows[slot(y, rowStart, rowCount)*rowWords + word] & ~seen;
+				if (tops == 0) continue;
+				seen |= tops;
+				if (y+1 > max) max = y+1;
+				while (tops != 0) {
+					heights[(word << 6) + Long.numberOfTrailingZeros(tops)] = y+1;
+					tops &= tops-1;
+				}
+			}
+		}
+		return max;
+	}
+
+	/* Method: slot
+	 * ------------
+	 * Returns the buffer row holding row y.
+	 */
+	static int slot(int y, int rowStart, int rowCount) {
+		int s = rowStart + y;
+		return (s >= rowCount) ? s - rowCount : s;
+	}
+}
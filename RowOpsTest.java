@@ -0,0 +1,84 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class RowOpsTest {
+	private RowOps scalar;
+	private RowOps vector;
+
+	@Before
+	public void setUp() throws Exception {
+		scalar = RowOps.scalar();
+		vector = RowOps.vector();
+	}
+
+	// Random rows of the given width, with some rows empty and some full
+	private long[] randomRows(Random rand, int rowWords, int rowCount, long lastWordMask) {
+		long[] rows = new long[rowWords * rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			int kind = rand.nextInt(4);
+			for (int word = 0; word < rowWords; word++) {
+				long mask = (word == rowWords-1) ? lastWordMask : -1L;
+				long bits = (kind == 0) ? 0 : (kind == 1) ? -1L : rand.nextLong() & rand.nextLong();
+				rows[row*rowWords + word] = bits & mask;
+			}
+		}
+		return rows;
+	}
+
+	// The scalar row widths match a count made by hand
+	@Test
+	public void testScalarWidths() {
+		long[] rows = {-1L, 0xFFL, 1L, 0L};
+		int[] widths = new int[4];
+		assertEquals(73, scalar.rowWidths(rows, 1, 4, widths));
+		assertArrayEquals(new int[] {64, 8, 1, 0}, widths);
+
+		int[] heights = new int[64];
+		assertEquals(3, scalar.columnHeights(rows, 1, 4, 0, 4, heights));
+		assertEquals(3, heights[0]);
+		assertEquals(2, heights[7]);
+		assertEquals(1, heights[63]);
+
+		// turning the buffer by three puts the empty row at the bottom
+		heights = new int[64];
+		assertEquals(4, scalar.columnHeights(rows, 1, 4, 3, 4, heights));
+		assertEquals(4, heights[0]);
+		assertEquals(3, heights[7]);
+		assertEquals(2, heights[63]);
+	}
+
+	// The Vector API version gives the same results as the scalar one
+	@Test
+	public void testVectorMatchesScalar() {
+		if (vector == null) return;    // the jdk.incubator.vector module is not present
+
+		Random rand = new Random(1);
+		int[] boardWidths = {1, 10, 63, 64, 65, 200, 256, 300, 513, 1000};
+		for (int width : boardWidths) {
+			int rowWords = (width + 63) >>> 6;
+			long lastWordMask = ((width & 63) == 0) ? -1L : (1L << width) - 1;
+			for (int trial = 0; trial < 20; trial++) {
+				int rowCount = 1 + rand.nextInt(40);
+				long[] rows = randomRows(rand, rowWords, rowCount, lastWordMask);
+
+				int[] expected = new int[rowCount];
+				int[] actual = new int[rowCount];
+				assertEquals(scalar.rowWidths(rows, rowWords, rowCount, expected), vector.rowWidths(rows, rowWords, rowCount, actual));
+				assertArrayEquals(expected, actual);
+
+				int rowStart = rand.nextInt(rowCount);
+				int top = rand.nextInt(rowCount + 1);
+				int[] expectedHeights = new int[rowWords * 64];
+				int[] actualHeights = new int[rowWords * 64];
+				assertEquals(scalar.columnHeights(rows, rowWords, rowCount, rowStart, top, expectedHeights),
+						vector.columnHeights(rows, rowWords, rowCount, rowStart, top, actualHeights));
+				assertArrayEquals(expectedHeights, actualHeights);
+			}
+		}
+	}
+}
@@ -48,6 +48,15 @@ public class TPoint {
 		return(x==pt.x && y==pt.y);
 	}
 
+	/* Method: hashCode
+	 * ----------------
+	 * Override to be consistent with equals().
+	 */
+	@Override
+	public int hashCode() {
+		return 31*x + y;
+	}
+
 	/* Method: toString
 	 * ----------------
 	 * Converts a TPoint to a readable string form.
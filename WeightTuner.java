@@ -0,0 +1,374 @@
+/* Class: WeightTuner.java
+ * -----------------------
+ * Tunes the weights of a FeatureEvaluator with the cross-entropy method.
+ * Each iteration draws a population of weight vectors from a normal
+ * distribution per weight, rates each by the mean score of DefaultBrain
+ * games played with it on a fixed list of seeds, and refits the
+ * distribution to the best (elite) fraction of them. A little extra
+ * variance, shrinking each iteration, keeps the distribution from
+ * collapsing early (Szita and Lorincz's noisy cross-entropy).
+ *
+ * The games of an iteration all go to an executor at once, one task per
+ * game, so every core stays busy. Each thread plays on its own engine,
+ * brain and evaluator, made once and reused from game to game. The
+ * candidates of an iteration come from a generator seeded from the tuner's
+ * seed and the iteration number, and the games only depend on their seeds,
+ * so a run gives the same weights with any number of threads, and a run
+ * resumed from a checkpoint goes on just as it would have.
+ *
+ * After every iteration the state is written to the checkpoint file, and
+ * the best weights seen so far to the weights file, as FeatureEvaluator
+ * weights text. Both are written to a temporary file first and moved into
+ * place, so a run killed midway leaves the old ones. The checkpoint also
+ * records what the run is (the tuner's seed, the population, the game
+ * seeds, the piece limit and the board), and is only resumed by a tuner
+ * set up the same way.
+ *
+ * Usage: java tetris.WeightTuner checkpointFile weightsFile [iterations [population [games [pieceLimit]]]]
+ * An existing checkpoint file is resumed from. By default, 20 iterations of
+ * 50 candidates, each rated on 10 games of at most 2000 pieces on a 10x20 board.
+ */
+package tetris;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class WeightTuner {
+	// Fraction of each population the distribution is refitted to
+	private static final double ELITE_FRACTION = 0.2;
+
+	// Extra variance added when refitting, NOISE at first and NOISE_DECAY less each iteration
+	private static final double NOISE = 4;
+	private static final double NOISE_DECAY = 0.1;
+
+	// Standard deviation of every weight at the start
+	private static final double INITIAL_DEVIATION = 10;
+
+	private final int population;
+	private final long[] seeds;
+	private final int pieceLimit;
+	private final int width;
+	private final int height;
+	private final long tunerSeed;
+
+	// The state saved in checkpoints
+	private int iteration;
+	private double[] mean;
+	private double[] deviation;
+	private double[] bestWeights;
+	private double bestFitness = Double.NEGATIVE_INFINITY;
+
+	// Each thread's engine, brain and evaluator, reused from game to game
+	private final ThreadLocal<Player> players = ThreadLocal.withInitial(() -> new Player());
+
+	private class Player {
+		final GameEngine engine = new GameEngine(width, height, JTetris.TOP_SPACE);
+		final FeatureEvaluator evaluator = new FeatureEvaluator();
+		final BrainDriver driver;
+
+		Player() {
+			DefaultBrain brain = new DefaultBrain();
+			brain.setEvaluator(evaluator);
+			driver = new BrainDriver(engine, brain);
+		}
+
+		int play(double[] weights, long seed) {
+			evaluator.setWeights(weights);
+			driver.playGame(new Random(seed), pieceLimit);
+			return engine.getScore();
+		}
+	}
+
+	/* Constructor: WeightTuner
+	 * ------------------------
+	 * Creates a tuner that draws population candidates per iteration and
+	 * rates each on the given seeds, with games of at most pieceLimit
+	 * pieces (or to the end if 0) on a board width wide where pieces land
+	 * within height rows. tunerSeed seeds the candidates. The distribution
+	 * starts at the given mean weights.
+	 */
+	public WeightTuner(int population, long[] seeds, int pieceLimit, int width, int height, long tunerSeed, double[] initialMean) {
+		if (population < 2 || seeds.length == 0) throw new RuntimeException("Tuning needs at least 2 candidates and 1 game");
+		this.population = population;
+		this.seeds = seeds.clone();
+		this.pieceLimit = pieceLimit;
+		this.width = width;
+		this.height = height;
+		this.tunerSeed = tunerSeed;
+
+		mean = initialMean.clone();
+		deviation = new double[FeatureEvaluator.FEATURE_COUNT];
+		Arrays.fill(deviation, INITIAL_DEVIATION);
+		bestWeights = mean.clone();
+	}
+
+	/* Method: step
+	 * ------------
+	 * Runs one iteration, playing its games on the executor, and returns
+	 * the mean fitness of its elite.
+	 */
+	public double step(ExecutorService executor) {
+		final int features = FeatureEvaluator.FEATURE_COUNT;
+		Random random = new Random(tunerSeed * 0x9E3779B97F4A7C15L + iteration);
+		final double[][] candidates = new double[population][features];
+		for (double[] candidate : candidates) {
+			for (int f = 0; f < features; f++) candidate[f] = mean[f] + deviation[f] * random.nextGaussian();
+		}
+
+		// every game of the iteration at once
+		List<Future<Integer>> games = new ArrayList<Future<Integer>>(population * seeds.length);
+		for (final double[] candidate : candidates) {
+			for (final long seed : seeds) {
+				games.add(executor.submit(() -> players.get().play(candidate, seed)));
+			}
+		}
+		final double[] fitness = new double[population];
+		try {
+			for (int i = 0; i < games.size(); i++) fitness[i / seeds.length] += games.get(i).get();
+		} catch (InterruptedException e) {
+			for (Future<Integer> game : games) game.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while tuning", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("A tuning game failed", e.getCause());
+		}
+		for (int c = 0; c < population; c++) fitness[c] /= seeds.length;
+
+		// best first; ties in the order drawn
+		Integer[] order = new Integer[population];
+		for (int c = 0; c < population; c++) order[c] = c;
+		Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+		if (fitness[order[0]] > bestFitness) {
+			bestFitness = fitness[order[0]];
+			bestWeights = candidates[order[0]].clone();
+		}
+
+		// refit to the elite
+		final int elite = Math.max(2, (int)Math.round(population * ELITE_FRACTION));
+		final double noise = Math.max(0, NOISE - NOISE_DECAY * iteration);
+		double eliteFitness = 0;
+		for (int f = 0; f < features; f++) {
+			double sum = 0;
+			for (int k = 0; k < elite; k++) sum += candidates[order[k]][f];
+			final double m = sum / elite;
+			double squares = 0;
+			for (int k = 0; k < elite; k++) squares += (candidates[order[k]][f] - m) * (candidates[order[k]][f] - m);
+			mean[f] = m;
+			deviation[f] = Math.sqrt(squares / elite + noise);
+		}
+		for (int k = 0; k < elite; k++) eliteFitness += fitness[order[k]];
+
+		iteration++;
+		return eliteFitness / elite;
+	}
+
+	/* Method: getIteration
+	 * --------------------
+	 * Returns the number of iterations run, counting those before a checkpoint.
+	 */
+	public int getIteration() {
+		return iteration;
+	}
+
+	/* Method: getBestWeights
+	 * ----------------------
+	 * Returns the candidate with the best fitness so far.
+	 */
+	public double[] getBestWeights() {
+		return bestWeights.clone();
+	}
+
+	/* Method: getBestFitness
+	 * ----------------------
+	 * Returns the mean score of the best candidate so far.
+	 */
+	public double getBestFitness() {
+		return bestFitness;
+	}
+
+	/* Method: getMean
+	 * ---------------
+	 * Returns the mean of the current distribution.
+	 */
+	public double[] getMean() {
+		return mean.clone();
+	}
+
+	/* Method: saveCheckpoint
+	 * ----------------------
+	 * Writes the tuner's setup and state to the file, replacing it only once
+	 * the new state is all written, so a run killed midway leaves the old one.
+	 */
+	public void saveCheckpoint(String fileName) {
+		StringWriter text = new StringWriter();
+		PrintWriter out = new PrintWriter(text);
+		out.println("# WeightTuner checkpoint; weights in the order of FeatureEvaluator's features");
+		for (Map.Entry<String, String> entry : getSetup().entrySet()) out.println(entry.getKey() + " " + entry.getValue());
+		out.println("iteration " + iteration);
+		out.println("best_fitness " + bestFitness);
+		out.println("mean " + join(mean));
+		out.println("deviation " + join(deviation));
+		out.println("best " + join(bestWeights));
+		replaceFile(fileName, text.toString(), "checkpoint");
+	}
+
+	/* Method: saveBestWeights
+	 * -----------------------
+	 * Writes the best weights so far to the file as FeatureEvaluator weights
+	 * text, replacing it the same way as saveCheckpoint().
+	 */
+	public void saveBestWeights(String fileName) {
+		StringWriter text = new StringWriter();
+		text.write("# best of WeightTuner iteration " + iteration + ", mean score " + bestFitness + "\n");
+		try {
+			FeatureEvaluator.writeWeights(bestWeights, text);
+		} catch (IOException e) {
+			throw new RuntimeException(e);    // cannot happen with a StringWriter
+		}
+		replaceFile(fileName, text.toString(), "weights file");
+	}
+
+	/* Method: replaceFile
+	 * -------------------
+	 * Writes the text to a temporary file next to the named one, then moves
+	 * it over the named one in one step.
+	 */
+	private static void replaceFile(String fileName, String text, String what) {
+		Path file = Paths.get(fileName).toAbsolutePath();
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(temp)) {
+			out.write(text);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the " + what + " " + fileName, e);
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not replace the " + what + " " + fileName, e);
+		}
+	}
+
+	/* Method: getSetup
+	 * ----------------
+	 * Returns what makes this run this run, by checkpoint key, in order: a
+	 * checkpoint is only resumed by a tuner with the same values.
+	 */
+	private Map<String, String> getSetup() {
+		Map<String, String> setup = new LinkedHashMap<String, String>();
+		setup.put("tuner_seed", Long.toString(tunerSeed));
+		setup.put("population", Integer.toString(population));
+		StringBuilder seedList = new StringBuilder();
+		for (int i = 0; i < seeds.length; i++) {
+			if (i > 0) seedList.append(' ');
+			seedList.append(seeds[i]);
+		}
+		setup.put("seeds", seedList.toString());
+		setup.put("piece_limit", Integer.toString(pieceLimit));
+		setup.put("board", width + " " + height);
+		return setup;
+	}
+
+	/* Method: loadCheckpoint
+	 * ----------------------
+	 * Restores the tuner's state from a file written by saveCheckpoint(),
+	 * by a tuner set up the same way; one set up differently would go on
+	 * with another run, so that is an error.
+	 */
+	public void loadCheckpoint(String fileName) {
+		Map<String, String> values = new HashMap<String, String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				int space = line.indexOf(' ');
+				if (space < 0) throw new RuntimeException("Bad checkpoint line: " + line);
+				values.put(line.substring(0, space), line.substring(space + 1).trim());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the checkpoint " + fileName, e);
+		}
+		for (String key : new String[] { "iteration", "best_fitness", "mean", "deviation", "best" }) {
+			if (!values.containsKey(key)) throw new RuntimeException("Checkpoint has no " + key + ": " + fileName);
+		}
+		for (Map.Entry<String, String> entry : getSetup().entrySet()) {
+			String saved = values.get(entry.getKey());
+			if (saved == null) throw new RuntimeException("Checkpoint has no " + entry.getKey() + ": " + fileName);
+			if (!saved.equals(entry.getValue())) {
+				throw new RuntimeException("Checkpoint " + fileName + " is for another run: " + entry.getKey()
+						+ " " + saved + " there, " + entry.getValue() + " here");
+			}
+		}
+		iteration = Integer.parseInt(values.get("iteration"));
+		bestFitness = Double.parseDouble(values.get("best_fitness"));
+		mean = split(values.get("mean"));
+		deviation = split(values.get("deviation"));
+		bestWeights = split(values.get("best"));
+	}
+
+	/* Method: join
+	 * ------------
+	 * Returns the weights separated by spaces.
+	 */
+	private static String join(double[] values) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) text.append(' ');
+			text.append(values[i]);
+		}
+		return text.toString();
+	}
+
+	/* Method: split
+	 * -------------
+	 * Returns the weights in text written by join().
+	 */
+	private static double[] split(String text) {
+		String[] parts = text.split("\\s+");
+		if (parts.length != FeatureEvaluator.FEATURE_COUNT) throw new RuntimeException("Expected " + FeatureEvaluator.FEATURE_COUNT + " weights: " + text);
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i]);
+		return values;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: java tetris.WeightTuner checkpointFile weightsFile [iterations [population [games [pieceLimit]]]]");
+			System.exit(1);
+		}
+		String checkpointFile = args[0];
+		String weightsFile = args[1];
+		int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+		int population = (args.length > 3) ? Integer.parseInt(args[3]) : 50;
+		int gameCount = (args.length > 4) ? Integer.parseInt(args[4]) : 10;
+		int pieceLimit = (args.length > 5) ? Integer.parseInt(args[5]) : 2000;
+
+		long[] seeds = new long[gameCount];
+		for (int i = 0; i < gameCount; i++) seeds[i] = i;
+		WeightTuner tuner = new WeightTuner(population, seeds, pieceLimit, JTetris.WIDTH, JTetris.HEIGHT, 1,
+				new double[FeatureEvaluator.FEATURE_COUNT]);
+		if (new File(checkpointFile).exists()) {
+			tuner.loadCheckpoint(checkpointFile);
+			System.out.println("Resuming at iteration " + tuner.getIteration());
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			while (tuner.getIteration() < iterations) {
+				long start = System.nanoTime();
+				double eliteFitness = tuner.step(executor);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("iteration %d: elite mean score %.1f, best %.1f, %.1f games/s on %d threads%n",
+						tuner.getIteration(), eliteFitness, tuner.getBestFitness(), population * gameCount / seconds, threads);
+
+				tuner.saveCheckpoint(checkpointFile);
+				tuner.saveBestWeights(weightsFile);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
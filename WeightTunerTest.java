@@ -0,0 +1,90 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.*;
+
+public class WeightTunerTest {
+	private long[] seeds;
+
+	@Before
+	public void setUp() throws Exception {
+		seeds = new long[] { 3, 8 };
+	}
+
+	// A small tuner; the setups differ only in population
+	private WeightTuner newTuner(int population) {
+		return new WeightTuner(population, seeds, 50, 10, 20, 7, FeatureEvaluator.getDefaultWeights());
+	}
+
+	// Runs the given number of iterations on an executor with the given number of threads, returning the elite means
+	private double[] run(WeightTuner tuner, int iterations, int threads) {
+		double[] elite = new double[iterations];
+		ExecutorService executor = BatchRunner.newExecutor(threads);
+		try {
+			for (int i = 0; i < iterations; i++) elite[i] = tuner.step(executor);
+		} finally {
+			executor.shutdown();
+		}
+		return elite;
+	}
+
+	// Asserts that the two tuners are in the same state
+	private void assertSameState(WeightTuner expected, WeightTuner actual) {
+		assertEquals(expected.getIteration(), actual.getIteration());
+		assertArrayEquals(expected.getMean(), actual.getMean(), 0);
+		assertArrayEquals(expected.getBestWeights(), actual.getBestWeights(), 0);
+		assertEquals(expected.getBestFitness(), actual.getBestFitness(), 0);
+	}
+
+	// The run does not depend on the number of threads
+	@Test
+	public void testThreadCounts() {
+		WeightTuner one = newTuner(4);
+		WeightTuner three = newTuner(4);
+		assertArrayEquals(run(one, 2, 1), run(three, 2, 3), 0);
+		assertSameState(one, three);
+	}
+
+	// A run resumed from a checkpoint goes on just as it would have
+	@Test
+	public void testResume() throws IOException {
+		File checkpoint = File.createTempFile("tuner", ".checkpoint");
+		try {
+			WeightTuner straight = newTuner(4);
+			run(straight, 1, 1);
+			straight.saveCheckpoint(checkpoint.getPath());
+			double[] next = run(straight, 1, 1);
+
+			WeightTuner resumed = newTuner(4);
+			resumed.loadCheckpoint(checkpoint.getPath());
+			assertEquals(1, resumed.getIteration());
+			assertArrayEquals(next, run(resumed, 1, 2), 0);
+			assertSameState(straight, resumed);
+		} finally {
+			checkpoint.delete();
+		}
+	}
+
+	// A checkpoint is only resumed by a tuner set up the same way
+	@Test
+	public void testOtherSetupRejected() throws IOException {
+		File checkpoint = File.createTempFile("tuner", ".checkpoint");
+		try {
+			WeightTuner tuner = newTuner(4);
+			run(tuner, 1, 1);
+			tuner.saveCheckpoint(checkpoint.getPath());
+			try {
+				newTuner(5).loadCheckpoint(checkpoint.getPath());
+				fail("resumed another run");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("population 4 there, 5 here"));
+			}
+		} finally {
+			checkpoint.delete();
+		}
+	}
+}
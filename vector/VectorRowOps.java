@@ -0,0 +1,133 @@
+/* Class: VectorRowOps.java
+ * ------------------------
+ * RowOps on the incubating Vector API. Needs the jdk.incubator.vector module
+ * to compile and run, so it lives apart from the other classes and is only
+ * compiled on its own, against them:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp <classes> -d <classes> vector/VectorRowOps.java
+ *
+ * RowOps only loads it by name when asked for it, so a plain javac *.java
+ * builds and runs the game without it.
+ *
+ * Rows of a single word are counted several rows at a time, and wider rows
+ * several words at a time. The JDK this targets has no lanewise bit count,
+ * so the counts use the usual shift-and-mask (SWAR) steps on each lane.
+ * Column heights sweep several words of every row at once, dropping to the
+ * scalar loop for whatever is left over.
+ */
+package tetris;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorRowOps extends RowOps {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	/* Method: getName
+	 * ---------------
+	 * Returns a short name for the version, for reports.
+	 */
+	String getName() {
+		return "vector" + LANES;
+	}
+
+	/* Method: bitCounts
+	 * -----------------
+	 * Returns the number of set bits in each lane.
+	 */
+	private static LongVector bitCounts(LongVector v) {
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+		v = v.and(0x3333333333333333L).add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+		v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+		return v.mul(0x0101010101010101L).lanewise(VectorOperators.LSHR, 56);
+	}
+
+	/* Method: rowWidths
+	 * -----------------
+	 * See RowOps.rowWidths().
+	 */
+	int rowWidths(long[] rows, int rowWords, int rowCount, int[] widths) {
+		int total = 0;
+		if (rowWords == 1) {
+			// one row per lane
+			long[] counts = new long[LANES];
+			int row = 0;
+			for (; row + LANES <= rowCount; row += LANES) {
+				bitCounts(LongVector.fromArray(SPECIES, rows, row)).intoArray(counts, 0);
+				for (int lane = 0; lane < LANES; lane++) {
+					widths[row + lane] = (int)counts[lane];
+					total += (int)counts[lane];
+				}
+			}
+			for (; row < rowCount; row++) {
+				widths[row] = Long.bitCount(rows[row]);
+				total += widths[row];
+			}
+		} else {
+			// one word per lane, added up across the lanes for each row
+			for (int row = 0; row < rowCount; row++) {
+				int base = row*rowWords;
+				int word = 0;
+				LongVector sum = LongVector.zero(SPECIES);
+				for (; word + LANES <= rowWords; word += LANES) {
+					sum = sum.add(bitCounts(LongVector.fromArray(SPECIES, rows, base + word)));
+				}
+				int count = Math.toIntExact(sum.reduceLanes(VectorOperators.ADD));
+				for (; word < rowWords; word++) count += Long.bitCount(rows[base + word]);
+				widths[row] = count;
+				total += count;
+			}
+		}
+		return total;
+	}
+
+	/* Method: columnHeights
+	 * ---------------------
+	 * See RowOps.columnHeights(). Each group of LANES words is swept down
+	 * together, and a row only costs more than a few vector operations
+	 * when it holds the top of some column.
+	 */
+	int columnHeights(long[] rows, int rowWords, int rowCount, int rowStart, int top, int[] heights) {
+		if (rowWords < LANES) return super.columnHeights(rows, rowWords, rowCount, rowStart, top, heights);
+
+		int max = 0;
+		long[] tops = new long[LANES];
+		int word = 0;
+		for (; word + LANES <= rowWords; word += LANES) {
+			LongVector seen = LongVector.zero(SPECIES);
+			for (int y = top-1; y >= 0; y--) {
+				LongVector row = LongVector.fromArray(SPECIES, rows, slot(y, rowStart, rowCount)*rowWords + word);
+				LongVector found = row.and(seen.not());
+				if (!found.compare(VectorOperators.NE, 0L).anyTrue()) continue;
+				seen = seen.or(found);
+				if (y+1 > max) max = y+1;
+				found.intoArray(tops, 0);
+				for (int lane = 0; lane < LANES; lane++) {
+					long bits = tops[lane];
+					while (bits != 0) {
+						heights[((word + lane) << 6) + Long.numberOfTrailingZeros(bits)] = y+1;
+						bits &= bits-1;
+					}
+				}
+			}
+		}
+
+		// the words left over are swept one at a time
+		for (; word < rowWords; word++) {
+			long seen = 0;
+			for (int y = top-1; y >= 0; y--) {
+				long found = rows[slot(y, rowStart, rowCount)*rowWords + word] & ~seen;
+				if (found == 0) continue;
+				seen |= found;
+				if (y+1 > max) max = y+1;
+				while (found != 0) {
+					heights[(word << 6) + Long.numberOfTrailingZeros(found)] = y+1;
+					found &= found-1;
+				}
+			}
+		}
+		return max;
+	}
+}